@@ -0,0 +1,179 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.gwt.serialization;
+
+import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.client.rpc.SerializationStreamReader;
+import com.google.gwt.user.client.rpc.impl.Serializer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rebuilds a model from the baseline objects and the changed slots of a delta, see
+ * {@link JsonReader#applyDelta(Object, String)}. The positions of the changed slots are noted first, a slot is built
+ * when it is first referred to; an object is instantiated before its fields are read, so cycles work like in the
+ * normal reader.
+ * <p/>
+ * User: monkeyboy
+ */
+class DeltaReader {
+    private final Serializer serializer;
+    private final List<Object> baselineObjects;
+    private final JsonStreamReader in;
+    private final SlotReader slotReader = new SlotReader();
+    /**
+     * Strings of the baseline walk followed by the ones added by the delta.
+     */
+    private final List<String> strings;
+    /**
+     * Reader index of the tokens of every changed slot, -1 for unchanged ones.
+     */
+    private final int[] positions;
+    private final Object[] objects;
+
+    /**
+     * @param baselineSlots the walked baseline
+     * @param in            reader prepared with the patch
+     */
+    DeltaReader(final Serializer serializer, final DeltaStreamWriter baselineSlots, final JsonStreamReader in)
+            throws SerializationException {
+        this.serializer = serializer;
+        this.in = in;
+        baselineObjects = baselineSlots.objects;
+        // every slot is either a baseline object or written in the delta
+        positions = new int[check(in.readInt(), baselineObjects.size() + in.getIndex() + 1, "slot count")];
+        objects = new Object[positions.length];
+        if (in.readLong() != baselineSlots.getBaselineChecksum()) {
+            throw new SerializationException("The delta was written against a different baseline");
+        }
+        strings = new ArrayList<String>(baselineSlots.getStrings());
+        for (int i = in.readInt(); i > 0; i--) {
+            strings.add(in.readString());
+        }
+        Arrays.fill(positions, -1);
+        for (int i = in.readInt(); i > 0; i--) {
+            final int slot = check(in.readInt(), positions.length, "slot");
+            final int tokenCount = check(in.readInt(), in.getIndex() + 1, "token count");
+            positions[slot] = in.getIndex();
+            in.setIndex(in.getIndex() - tokenCount);
+        }
+        for (int slot = baselineObjects.size(); slot < positions.length; slot++) {
+            if (positions[slot] < 0) {
+                throw new SerializationException("New slot " + slot + " is missing from the delta");
+            }
+        }
+    }
+
+    /**
+     * @return the current model, null if it is null
+     */
+    Object getRoot() throws SerializationException {
+        return positions.length == 0 ? null : get(0);
+    }
+
+    private Object get(final int slot) throws SerializationException {
+        if (positions[slot] < 0) {
+            return baselineObjects.get(slot);
+        }
+        if (objects[slot] == null) {
+            // slots are built while their referrer is read
+            final int index = in.getIndex();
+            in.setIndex(positions[slot]);
+            final String typeSignature = slotReader.readString();
+            final Object instance = serializer.instantiate(slotReader, typeSignature);
+            objects[slot] = instance;
+            serializer.deserialize(slotReader, instance, typeSignature);
+            in.setIndex(index);
+        }
+        return objects[slot];
+    }
+
+    /**
+     * @return the value if it is at least 0 and below the bound
+     * @throws SerializationException for a broken delta
+     */
+    private static int check(final int value, final int bound, final String what) throws SerializationException {
+        if (value < 0 || value >= bound) {
+            throw new SerializationException("Invalid " + what + " " + value + " in the delta");
+        }
+        return value;
+    }
+
+    /**
+     * Reads the own tokens of one slot, strings are looked up in {@link #strings} and object references are resolved
+     * to slots.
+     */
+    private class SlotReader implements SerializationStreamReader {
+
+        @Override
+        public Object readObject() throws SerializationException {
+            final int reference = in.readInt();
+            if (reference < 0) {
+                return strings.get(check(-reference - 1, strings.size(), "string"));
+            }
+            return reference == 0 ? null : get(check(reference - 1, positions.length, "slot"));
+        }
+
+        @Override
+        public boolean readBoolean() throws SerializationException {
+            return in.readBoolean();
+        }
+
+        @Override
+        public byte readByte() throws SerializationException {
+            return in.readByte();
+        }
+
+        @Override
+        public char readChar() throws SerializationException {
+            return in.readChar();
+        }
+
+        @Override
+        public double readDouble() throws SerializationException {
+            return in.readDouble();
+        }
+
+        @Override
+        public float readFloat() throws SerializationException {
+            return in.readFloat();
+        }
+
+        @Override
+        public int readInt() throws SerializationException {
+            return in.readInt();
+        }
+
+        @Override
+        public long readLong() throws SerializationException {
+            return in.readLong();
+        }
+
+        @Override
+        public short readShort() throws SerializationException {
+            return in.readShort();
+        }
+
+        @Override
+        public String readString() throws SerializationException {
+            final int index = in.readInt();
+            return index == 0 ? null : strings.get(check(index - 1, strings.size(), "string"));
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.gwt.serialization;
+
+import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.client.rpc.impl.Serializer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Walks models for delta encoding, see {@link JsonWriter#writeDelta(Object, Object)}. Every object except Strings
+ * is a slot, numbered breadth first from the root of the walk. The own tokens of a slot (type signature and fields,
+ * without nested objects) are written one after another, with references to other slots written as slot number + 1
+ * and 0 for null. Strings are written inline as the negated string index, so the numbering doesn't depend on String
+ * identity, which the client can't see.
+ * <p/>
+ * The baseline is walked first and the current model second, into the same token buffer and string table, so equal
+ * tokens mean equal values and two walks of models with the same shape give the same slot numbers. The values of the
+ * baseline walk and its strings are also hashed, the reader compares the hash with the one of its own baseline walk,
+ * so a baseline that is walked in a different order is detected. Values are hashed rather than tokens, doubles are
+ * rendered differently on the client.
+ * <p/>
+ * User: monkeyboy
+ */
+class DeltaStreamWriter extends JsonSerializationStreamWriter {
+    private static final int INITIAL_SLOT_CAPACITY = 16;
+
+    private final IdentityIntMap slotIndexes = new IdentityIntMap();
+    final List<Object> objects = new ArrayList<Object>();
+    /**
+     * First token and end token of every slot.
+     */
+    private int[] slotStarts = new int[INITIAL_SLOT_CAPACITY];
+    private int[] slotEnds = new int[INITIAL_SLOT_CAPACITY];
+    /**
+     * Pairs of referring and referred slot.
+     */
+    private int[] references = new int[2 * INITIAL_SLOT_CAPACITY];
+    private int referenceCount;
+    /**
+     * First slot and string table size of the last walk.
+     */
+    private int walkStart;
+    private int walkStringStart;
+    private int currentSlot;
+    private final FingerprintStreamWriter checksum;
+    /**
+     * Hash of the first walk, the baseline.
+     */
+    private long baselineChecksum;
+
+    DeltaStreamWriter(final Serializer serializer, final TypeSignatureCache typeSignatureCache) {
+        super(serializer, typeSignatureCache, null);
+        checksum = new FingerprintStreamWriter(serializer, typeSignatureCache);
+        // the slot tokens are copied into the patch, which is strict JSON
+        setStrictJson(true);
+    }
+
+    /**
+     * Collects the slots of the model.
+     *
+     * @return number of slots of the walk
+     */
+    int walk(final Object root) throws SerializationException {
+        walkStart = objects.size();
+        walkStringStart = getStringTable().size();
+        checksum.reset();
+        if (root != null) {
+            addSlot(root);
+        }
+        for (int slot = walkStart; slot < objects.size(); slot++) {
+            final Object instance = objects.get(slot);
+            final String typeSignature = getObjectTypeSignature(instance);
+            if (typeSignature == null) {
+                throw new SerializationException("Could not find type signature for " + instance.getClass().getName());
+            }
+            currentSlot = slot;
+            slotStarts[slot] = getTokenCount();
+            writeString(typeSignature);
+            serialize(instance, typeSignature);
+            slotEnds[slot] = getTokenCount();
+        }
+        // objects shared with the next walk get slots of that walk too
+        slotIndexes.clear();
+        if (walkStart == 0) {
+            for (String string : getStringTable()) {
+                checksum.writeString(string);
+            }
+            checksum.writeInt(objects.size());
+            baselineChecksum = checksum.getFingerprint();
+        }
+        return objects.size() - walkStart;
+    }
+
+    List<String> getStrings() {
+        return getStringTable();
+    }
+
+    /**
+     * @return hash of the values and strings of the first walk
+     */
+    long getBaselineChecksum() {
+        return baselineChecksum;
+    }
+
+    /**
+     * Writes the delta of the last walk against the one before it: number of slots, hash of the baseline walk, the
+     * strings added since, number of changed slots and then slot number, token count and tokens of every
+     * changed slot.
+     */
+    void writePatch(final JsonSerializationStreamWriter out) {
+        final boolean[] changed = getChangedSlots();
+        int changedCount = 0;
+        for (boolean slotChanged : changed) {
+            if (slotChanged) {
+                changedCount++;
+            }
+        }
+        final List<String> strings = getStringTable();
+        out.writeInt(changed.length);
+        out.writeLong(baselineChecksum);
+        out.writeInt(strings.size() - walkStringStart);
+        for (int i = walkStringStart; i < strings.size(); i++) {
+            out.writeString(strings.get(i));
+        }
+        out.writeInt(changedCount);
+        for (int i = 0; i < changed.length; i++) {
+            if (changed[i]) {
+                final int slot = walkStart + i;
+                out.writeInt(i);
+                out.writeInt(slotEnds[slot] - slotStarts[slot]);
+                out.writeTokens(this, slotStarts[slot], slotEnds[slot]);
+            }
+        }
+    }
+
+    /**
+     * @return which slots of the last walk differ from the walk before it. Slots that refer to a changed slot are
+     *         changed too, so unchanged baseline objects never point to stale objects.
+     */
+    private boolean[] getChangedSlots() {
+        final int size = objects.size() - walkStart;
+        final boolean[] changed = new boolean[size];
+        final List<Integer> pending = new ArrayList<Integer>();
+        for (int i = 0; i < size; i++) {
+            if (i >= walkStart || !sameTokens(i, walkStart + i)) {
+                changed[i] = true;
+                pending.add(i);
+            }
+        }
+        if (pending.isEmpty()) {
+            return changed;
+        }
+        final List<List<Integer>> referrers = new ArrayList<List<Integer>>(size);
+        for (int i = 0; i < size; i++) {
+            referrers.add(new ArrayList<Integer>());
+        }
+        for (int i = 0; i < referenceCount; i++) {
+            final int from = references[2 * i];
+            if (from >= walkStart) {
+                referrers.get(references[2 * i + 1] - walkStart).add(from - walkStart);
+            }
+        }
+        while (!pending.isEmpty()) {
+            for (Integer referrer : referrers.get(pending.remove(pending.size() - 1))) {
+                if (!changed[referrer]) {
+                    changed[referrer] = true;
+                    pending.add(referrer);
+                }
+            }
+        }
+        return changed;
+    }
+
+    private boolean sameTokens(final int slot, final int otherSlot) {
+        final int count = slotEnds[slot] - slotStarts[slot];
+        if (count != slotEnds[otherSlot] - slotStarts[otherSlot]) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (!tokenEquals(slotStarts[slot] + i, slotStarts[otherSlot] + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Every value also goes into the checksum. Strings go in as their index, the table is hashed after the walk.
+
+    @Override
+    public void writeBoolean(boolean fieldValue) {
+        super.writeBoolean(fieldValue);
+        checksum.writeBoolean(fieldValue);
+    }
+
+    @Override
+    public void writeInt(int fieldValue) {
+        super.writeInt(fieldValue);
+        checksum.writeInt(fieldValue);
+    }
+
+    @Override
+    public void writeLong(long value) {
+        super.writeLong(value);
+        checksum.writeLong(value);
+    }
+
+    @Override
+    public void writeDouble(double fieldValue) {
+        super.writeDouble(fieldValue);
+        checksum.writeDouble(fieldValue);
+    }
+
+    @Override
+    protected void append(String token) {
+        super.append(token);
+        checksum.writeString(token);
+    }
+
+    /**
+     * Arrays go through the serializer, so their elements reach the checksum.
+     */
+    @Override
+    boolean writePrimitiveArray(final Object instance) {
+        return false;
+    }
+
+    @Override
+    public void writeObject(Object instance) throws SerializationException {
+        if (instance == null) {
+            writeInt(0);
+        } else if (instance instanceof String) {
+            writeInt(-addString((String) instance));
+        } else {
+            int slot = slotIndexes.get(instance);
+            if (slot < 0) {
+                slot = addSlot(instance);
+            }
+            writeInt(slot - walkStart + 1);
+            addReference(currentSlot, slot);
+        }
+    }
+
+    private int addSlot(final Object instance) {
+        final int slot = objects.size();
+        if (slot == slotStarts.length) {
+            slotStarts = grow(slotStarts);
+            slotEnds = grow(slotEnds);
+        }
+        slotIndexes.put(instance, slot);
+        objects.add(instance);
+        return slot;
+    }
+
+    private void addReference(final int from, final int to) {
+        if (2 * referenceCount == references.length) {
+            references = grow(references);
+        }
+        references[2 * referenceCount] = from;
+        references[2 * referenceCount + 1] = to;
+        referenceCount++;
+    }
+
+    private static int[] grow(final int[] array) {
+        final int[] newArray = new int[array.length * 2];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+}
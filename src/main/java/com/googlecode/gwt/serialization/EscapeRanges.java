@@ -0,0 +1,110 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.googlecode.gwt.serialization;
+
+/**
+ * Chars that need to be escaped, as sorted [start, end) pairs. Generated by EscapeRangesGenerator, do not edit.
+ * <p/>
+ * User: monkeyboy
+ */
+final class EscapeRanges {
+    static final int[] RANGES = {
+            0x00000, 0x00020, 0x00022, 0x00023, 0x0005C, 0x0005D, 0x0007F, 0x000A1,
+            0x000AD, 0x000AE, 0x00237, 0x00250, 0x00300, 0x00374, 0x00376, 0x0037A,
+            0x0037B, 0x0037E, 0x0037F, 0x00384, 0x0038B, 0x0038C, 0x0038D, 0x0038E,
+            0x003A2, 0x003A3, 0x003CF, 0x003D0, 0x003FC, 0x00400, 0x00483, 0x0048A,
+            0x004CF, 0x004D0, 0x004F6, 0x004F8, 0x004FA, 0x00500, 0x00510, 0x00531,
+            0x00557, 0x00559, 0x00560, 0x00561, 0x00588, 0x00589, 0x0058B, 0x005BE,
+            0x005BF, 0x005C0, 0x005C1, 0x005C3, 0x005C4, 0x005D0, 0x005EB, 0x005F0,
+            0x005F5, 0x0060C, 0x00610, 0x0061B, 0x0061C, 0x0061F, 0x00620, 0x00621,
+            0x0063B, 0x00640, 0x0064B, 0x00660, 0x00670, 0x00671, 0x006D6, 0x006E5,
+            0x006E7, 0x006E9, 0x006EA, 0x006EE, 0x0070E, 0x00710, 0x00711, 0x00712,
+            0x00730, 0x0074D, 0x00750, 0x00780, 0x007A6, 0x007B1, 0x007B2, 0x00904,
+            0x0093A, 0x0093D, 0x0093E, 0x00950, 0x00951, 0x00958, 0x00962, 0x00964,
+            0x00971, 0x00985, 0x0098D, 0x0098F, 0x00991, 0x00993, 0x009A9, 0x009AA,
+            0x009B1, 0x009B2, 0x009B3, 0x009B6, 0x009BA, 0x009BD, 0x009BE, 0x009DC,
+            0x009DE, 0x009DF, 0x009E2, 0x009E6, 0x009FB, 0x00A05, 0x00A0B, 0x00A0F,
+            0x00A11, 0x00A13, 0x00A29, 0x00A2A, 0x00A31, 0x00A32, 0x00A34, 0x00A35,
+            0x00A37, 0x00A38, 0x00A3A, 0x00A59, 0x00A5D, 0x00A5E, 0x00A5F, 0x00A66,
+            0x00A70, 0x00A72, 0x00A75, 0x00A85, 0x00A8E, 0x00A8F, 0x00A92, 0x00A93,
+            0x00AA9, 0x00AAA, 0x00AB1, 0x00AB2, 0x00AB4, 0x00AB5, 0x00ABA, 0x00ABD,
+            0x00ABE, 0x00AD0, 0x00AD1, 0x00AE0, 0x00AE2, 0x00AE6, 0x00AF0, 0x00AF1,
+            0x00AF2, 0x00B05, 0x00B0D, 0x00B0F, 0x00B11, 0x00B13, 0x00B29, 0x00B2A,
+            0x00B31, 0x00B32, 0x00B34, 0x00B35, 0x00B3A, 0x00B3D, 0x00B3E, 0x00B5C,
+            0x00B5E, 0x00B5F, 0x00B62, 0x00B66, 0x00B72, 0x00B83, 0x00B84, 0x00B85,
+            0x00B8B, 0x00B8E, 0x00B91, 0x00B92, 0x00B96, 0x00B99, 0x00B9B, 0x00B9C,
+            0x00B9D, 0x00B9E, 0x00BA0, 0x00BA3, 0x00BA5, 0x00BA8, 0x00BAB, 0x00BAE,
+            0x00BB6, 0x00BB7, 0x00BBA, 0x00BE7, 0x00BFB, 0x00C05, 0x00C0D, 0x00C0E,
+            0x00C11, 0x00C12, 0x00C29, 0x00C2A, 0x00C34, 0x00C35, 0x00C3A, 0x00C60,
+            0x00C62, 0x00C66, 0x00C70, 0x00C85, 0x00C8D, 0x00C8E, 0x00C91, 0x00C92,
+            0x00CA9, 0x00CAA, 0x00CB4, 0x00CB5, 0x00CBA, 0x00CBD, 0x00CBE, 0x00CDE,
+            0x00CDF, 0x00CE0, 0x00CE2, 0x00CE6, 0x00CF0, 0x00D05, 0x00D0D, 0x00D0E,
+            0x00D11, 0x00D12, 0x00D29, 0x00D2A, 0x00D3A, 0x00D60, 0x00D62, 0x00D66,
+            0x00D70, 0x00D85, 0x00D97, 0x00D9A, 0x00DB2, 0x00DB3, 0x00DBC, 0x00DBD,
+            0x00DBE, 0x00DC0, 0x00DC7, 0x00DF4, 0x00DF5, 0x00E01, 0x00E31, 0x00E32,
+            0x00E34, 0x00E3F, 0x00E47, 0x00E4F, 0x00E5C, 0x00E81, 0x00E83, 0x00E84,
+            0x00E85, 0x00E87, 0x00E89, 0x00E8A, 0x00E8B, 0x00E8D, 0x00E8E, 0x00E94,
+            0x00E98, 0x00E99, 0x00EA0, 0x00EA1, 0x00EA4, 0x00EA5, 0x00EA6, 0x00EA7,
+            0x00EA8, 0x00EAA, 0x00EAC, 0x00EAD, 0x00EB1, 0x00EB2, 0x00EB4, 0x00EBD,
+            0x00EBE, 0x00EC0, 0x00EC5, 0x00EC6, 0x00EC7, 0x00ED0, 0x00EDA, 0x00EDC,
+            0x00EDE, 0x00F00, 0x00F18, 0x00F1A, 0x00F35, 0x00F36, 0x00F37, 0x00F38,
+            0x00F39, 0x00F3A, 0x00F3E, 0x00F40, 0x00F48, 0x00F49, 0x00F6B, 0x00F85,
+            0x00F86, 0x00F88, 0x00F8C, 0x00FBE, 0x00FC6, 0x00FC7, 0x00FCD, 0x00FCF,
+            0x00FD0, 0x01000, 0x01022, 0x01023, 0x01028, 0x01029, 0x0102B, 0x01040,
+            0x01056, 0x010A0, 0x010C6, 0x010D0, 0x010F9, 0x010FB, 0x010FC, 0x01100,
+            0x0115A, 0x0115F, 0x011A3, 0x011A8, 0x011FA, 0x01200, 0x01207, 0x01208,
+            0x01247, 0x01248, 0x01249, 0x0124A, 0x0124E, 0x01250, 0x01257, 0x01258,
+            0x01259, 0x0125A, 0x0125E, 0x01260, 0x01287, 0x01288, 0x01289, 0x0128A,
+            0x0128E, 0x01290, 0x012AF, 0x012B0, 0x012B1, 0x012B2, 0x012B6, 0x012B8,
+            0x012BF, 0x012C0, 0x012C1, 0x012C2, 0x012C6, 0x012C8, 0x012CF, 0x012D0,
+            0x012D7, 0x012D8, 0x012EF, 0x012F0, 0x0130F, 0x01310, 0x01311, 0x01312,
+            0x01316, 0x01318, 0x0131F, 0x01320, 0x01347, 0x01348, 0x0135B, 0x01361,
+            0x0137D, 0x013A0, 0x013F5, 0x01401, 0x01677, 0x01681, 0x0169D, 0x016A0,
+            0x016F1, 0x01700, 0x0170D, 0x0170E, 0x01712, 0x01720, 0x01732, 0x01735,
+            0x01737, 0x01740, 0x01752, 0x01760, 0x0176D, 0x0176E, 0x01771, 0x01780,
+            0x017B4, 0x017D4, 0x017DD, 0x017E0, 0x017EA, 0x017F0, 0x017FA, 0x01800,
+            0x0180B, 0x01810, 0x0181A, 0x01820, 0x01878, 0x01880, 0x018A9, 0x01900,
+            0x0191D, 0x01940, 0x01941, 0x01944, 0x0196E, 0x01970, 0x01975, 0x019E0,
+            0x01A00, 0x01D00, 0x01D6C, 0x01E00, 0x01E9C, 0x01EA0, 0x01EFA, 0x01F00,
+            0x01F16, 0x01F18, 0x01F1E, 0x01F20, 0x01F46, 0x01F48, 0x01F4E, 0x01F50,
+            0x01F58, 0x01F59, 0x01F5A, 0x01F5B, 0x01F5C, 0x01F5D, 0x01F5E, 0x01F5F,
+            0x01F7E, 0x01F80, 0x01FB5, 0x01FB6, 0x01FC5, 0x01FC6, 0x01FD4, 0x01FD6,
+            0x01FDC, 0x01FDD, 0x01FF0, 0x01FF2, 0x01FF5, 0x01FF6, 0x01FFF, 0x02010,
+            0x02011, 0x02012, 0x02028, 0x02030, 0x02055, 0x02057, 0x02058, 0x02070,
+            0x02072, 0x02074, 0x0208F, 0x020A0, 0x020B2, 0x02100, 0x0213C, 0x0213D,
+            0x0214C, 0x02153, 0x02184, 0x02190, 0x023D1, 0x02400, 0x02427, 0x02440,
+            0x0244B, 0x02460, 0x02618, 0x02619, 0x0267E, 0x02680, 0x02692, 0x026A0,
+            0x026A2, 0x02701, 0x02705, 0x02706, 0x0270A, 0x0270C, 0x02728, 0x02729,
+            0x0274C, 0x0274D, 0x0274E, 0x0274F, 0x02753, 0x02756, 0x02757, 0x02758,
+            0x0275F, 0x02761, 0x02795, 0x02798, 0x027B0, 0x027B1, 0x027BF, 0x027D0,
+            0x027EC, 0x027F0, 0x02B0E, 0x02E80, 0x02E9A, 0x02E9B, 0x02EF4, 0x02F00,
+            0x02FD6, 0x02FF0, 0x02FFC, 0x03001, 0x0302A, 0x03030, 0x03040, 0x03041,
+            0x03097, 0x0309B, 0x03100, 0x03105, 0x0312D, 0x03131, 0x0318F, 0x03190,
+            0x031B8, 0x031F0, 0x0321F, 0x03220, 0x03244, 0x03250, 0x0327E, 0x0327F,
+            0x032FF, 0x03300, 0x04DB6, 0x04DC0, 0x09FA6, 0x0A000, 0x0A48D, 0x0A490,
+            0x0A4C7, 0x0AC00, 0x0D7A4, 0x0F900, 0x0FA2E, 0x0FA30, 0x0FA6B, 0x0FB00,
+            0x0FB07, 0x0FB13, 0x0FB18, 0x0FB1D, 0x0FB1E, 0x0FB1F, 0x0FB37, 0x0FB38,
+            0x0FB3D, 0x0FB3E, 0x0FB3F, 0x0FB40, 0x0FB42, 0x0FB43, 0x0FB45, 0x0FB46,
+            0x0FBB2, 0x0FBD3, 0x0FD40, 0x0FD50, 0x0FD90, 0x0FD92, 0x0FDC8, 0x0FDF0,
+            0x0FDFE, 0x0FE30, 0x0FE53, 0x0FE54, 0x0FE67, 0x0FE68, 0x0FE6C, 0x0FE70,
+            0x0FE75, 0x0FE76, 0x0FEFD, 0x0FF01, 0x0FFBF, 0x0FFC2, 0x0FFC8, 0x0FFCA,
+            0x0FFD0, 0x0FFD2, 0x0FFD8, 0x0FFDA, 0x0FFDD, 0x0FFE0, 0x0FFE7, 0x0FFE8,
+            0x0FFEF, 0x0FFFC, 0x0FFFE, 0x10000
+    };
+
+    private EscapeRanges() {
+    }
+}
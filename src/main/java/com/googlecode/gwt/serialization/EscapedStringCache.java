@@ -0,0 +1,162 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.googlecode.gwt.serialization;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size bounded LRU cache of escaped string table entries (raw string -&gt; quoted and escaped string).
+ * One cache is shared by all writers of a {@link JsonWriterImpl} so strings that repeat across payloads are escaped
+ * only once. Strings escaped for strict JSON are kept apart from the others, see
+ * {@link JsonSerializationStreamWriter#setStrictJson(boolean)}; the size bound covers both modes together. Hit and
+ * miss counters can be used to size the cache.
+ * <p/>
+ * Big caches are split into stripes by the hash of the string, each with a lock of its own, so writers on different
+ * threads rarely wait for each other.
+ * <p/>
+ * User: monkeyboy
+ */
+public class EscapedStringCache {
+    private static final int STRIPES = 16;
+    /**
+     * Smaller caches have one stripe, split up they would evict strings long before they are full.
+     */
+    private static final int MIN_STRIPED_SIZE = 1024;
+
+    private final Stripe[] stripes;
+
+    public EscapedStringCache(final int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive: " + maxSize);
+        }
+        final int stripeCount = maxSize < MIN_STRIPED_SIZE ? 1 : STRIPES;
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            // the stripe sizes add up to maxSize
+            stripes[i] = new Stripe(maxSize / stripeCount + (i < maxSize % stripeCount ? 1 : 0));
+        }
+    }
+
+    /**
+     * @return the escaped string or null if the string is not in the cache
+     */
+    public String get(final String raw) {
+        return get(raw, false);
+    }
+
+    /**
+     * @param strictJson true for strings escaped for strict JSON
+     * @return the escaped string or null if the string is not in the cache
+     */
+    public String get(final String raw, final boolean strictJson) {
+        final Stripe stripe = stripeFor(raw);
+        synchronized (stripe) {
+            final String escaped = stripe.map(strictJson).get(raw);
+            if (escaped == null) {
+                stripe.misses++;
+            } else {
+                stripe.hits++;
+            }
+            return escaped;
+        }
+    }
+
+    public void put(final String raw, final String escaped) {
+        put(raw, false, escaped);
+    }
+
+    public void put(final String raw, final boolean strictJson, final String escaped) {
+        final Stripe stripe = stripeFor(raw);
+        synchronized (stripe) {
+            stripe.put(raw, strictJson, escaped);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        long hits = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                hits += stripe.hits;
+            }
+        }
+        return hits;
+    }
+
+    public long getMisses() {
+        long misses = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                misses += stripe.misses;
+            }
+        }
+        return misses;
+    }
+
+    private Stripe stripeFor(final String raw) {
+        if (stripes.length == 1) {
+            return stripes[0];
+        }
+        final int h = raw.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+    }
+
+    /**
+     * LRU maps of one stripe, one per mode, guarded by the stripe. A full stripe evicts the other mode first, so a
+     * cache used in one mode only gets the whole size.
+     */
+    private static final class Stripe {
+        private final int maxSize;
+        private final Map<String, String> escaped = new LinkedHashMap<String, String>(16, 0.75f, true);
+        private final Map<String, String> strictEscaped = new LinkedHashMap<String, String>(16, 0.75f, true);
+        private long hits;
+        private long misses;
+
+        Stripe(final int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        Map<String, String> map(final boolean strictJson) {
+            return strictJson ? strictEscaped : escaped;
+        }
+
+        void put(final String raw, final boolean strictJson, final String value) {
+            final Map<String, String> map = map(strictJson);
+            map.put(raw, value);
+            if (size() > maxSize) {
+                final Map<String, String> other = map(!strictJson);
+                final Iterator<String> eldest = (other.isEmpty() ? map : other).keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+
+        int size() {
+            return escaped.size() + strictEscaped.size();
+        }
+    }
+}
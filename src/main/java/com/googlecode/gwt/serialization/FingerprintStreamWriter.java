@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.gwt.serialization;
+
+import com.google.gwt.user.client.rpc.impl.Serializer;
+
+/**
+ * Writer that feeds every token into a 64-bit hash instead of a buffer, see {@link JsonWriter#fingerprint(Object)}.
+ * Strings are hashed by content where they are used, so there is no string table either. Objects are still tracked
+ * for back-references, which keeps cycles finite and the hash in line with the payload.
+ * <p/>
+ * Mixing follows MurmurHash3, the longs are emulated on the client.
+ * <p/>
+ * User: monkeyboy
+ */
+class FingerprintStreamWriter extends JsonSerializationStreamWriter {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private long hash;
+    private int tokens;
+
+    FingerprintStreamWriter(final Serializer serializer, final TypeSignatureCache typeSignatureCache) {
+        super(serializer, typeSignatureCache, null);
+    }
+
+    /**
+     * @return the hash of all tokens written since the last reset
+     */
+    long getFingerprint() {
+        long h = hash ^ tokens;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        hash = 0;
+        tokens = 0;
+    }
+
+    @Override
+    public void writeString(String value) {
+        if (value == null) {
+            mix(0);
+            return;
+        }
+        final int length = value.length();
+        // + 1 keeps the empty string apart from null
+        mix(length + 1);
+        // four chars per mix
+        long chunk = 0;
+        int shift = 0;
+        for (int i = 0; i < length; i++) {
+            chunk |= (long) value.charAt(i) << shift;
+            shift += 16;
+            if (shift == 64) {
+                mix(chunk);
+                chunk = 0;
+                shift = 0;
+            }
+        }
+        if (shift > 0) {
+            mix(chunk);
+        }
+    }
+
+    @Override
+    public void writeBoolean(boolean fieldValue) {
+        mix(fieldValue ? 1 : 0);
+    }
+
+    @Override
+    public void writeInt(int fieldValue) {
+        mix(fieldValue);
+    }
+
+    @Override
+    public void writeLong(long value) {
+        mix(value);
+    }
+
+    @Override
+    public void writeDouble(double fieldValue) {
+        mix(Double.doubleToLongBits(fieldValue));
+    }
+
+    @Override
+    protected void append(String token) {
+        writeString(token);
+    }
+
+    /**
+     * Arrays go through the serializer, the bulk paths write straight into the token buffer.
+     */
+    @Override
+    boolean writePrimitiveArray(final Object instance) {
+        return false;
+    }
+
+    private void mix(long value) {
+        value *= C1;
+        value = Long.rotateLeft(value, 31);
+        value *= C2;
+        hash ^= value;
+        hash = Long.rotateLeft(hash, 27) * 5 + 0x52dce729;
+        tokens++;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.gwt.serialization;
+
+import java.util.Arrays;
+
+/**
+ * Object -&gt; int identity map used by the writer to find back-references. It replaces the IdentityHashMap of the
+ * base class, which boxes every index.
+ * <p/>
+ * Open addressing table with linear probing, keys and values are kept in parallel arrays.
+ * <p/>
+ * The client side version is in the translatable folder.
+ * <p/>
+ * User: monkeyboy
+ */
+class IdentityIntMap {
+    private static final int INITIAL_CAPACITY = 64;
+    /**
+     * Tables bigger than this are dropped on clear, like the oversized buffers of a reset writer, so a pooled writer
+     * doesn't hold on to the table of a huge graph. The next big graph is presized from the size hint.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private Object[] keys = new Object[INITIAL_CAPACITY];
+    private int[] values = new int[INITIAL_CAPACITY];
+    private int size;
+    /**
+     * The writer always looks an object up before putting it, put reuses the free slot found by the failed lookup.
+     */
+    private Object missedKey;
+    private int missedSlot;
+
+    /**
+     * @return the value or -1 if the key is not in the map
+     */
+    int get(final Object key) {
+        final Object[] keys = this.keys;
+        final int mask = keys.length - 1;
+        for (int i = hash(key, mask); ; i = (i + 1) & mask) {
+            final Object k = keys[i];
+            if (k == key) {
+                return values[i];
+            }
+            if (k == null) {
+                missedKey = key;
+                missedSlot = i;
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Puts a key that is not in the map yet.
+     */
+    void put(final Object key, final int value) {
+        // keep the table at most half full
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length * 2);
+            insert(keys, values, key, value);
+        } else if (key == missedKey) {
+            keys[missedSlot] = key;
+            values[missedSlot] = value;
+        } else {
+            insert(keys, values, key, value);
+        }
+        missedKey = null;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Makes room for the given number of keys without growing.
+     */
+    void ensureCapacity(final int expectedSize) {
+        int capacity = keys.length;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        if (capacity != keys.length) {
+            resize(capacity);
+        }
+    }
+
+    int getCapacity() {
+        return keys.length;
+    }
+
+    void clear() {
+        if (keys.length > MAX_RETAINED_CAPACITY) {
+            keys = new Object[INITIAL_CAPACITY];
+            values = new int[INITIAL_CAPACITY];
+        } else if (size > 0) {
+            Arrays.fill(keys, null);
+        }
+        size = 0;
+        missedKey = null;
+    }
+
+    private void resize(final int capacity) {
+        final Object[] oldKeys = keys;
+        final int[] oldValues = values;
+        final Object[] newKeys = new Object[capacity];
+        final int[] newValues = new int[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                insert(newKeys, newValues, oldKeys[i], oldValues[i]);
+            }
+        }
+        keys = newKeys;
+        values = newValues;
+        missedKey = null;
+    }
+
+    private static void insert(final Object[] keys, final int[] values, final Object key, final int value) {
+        final int mask = keys.length - 1;
+        int i = hash(key, mask);
+        while (keys[i] != null) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+    }
+
+    private static int hash(final Object key, final int mask) {
+        // identity hash codes of objects allocated together are close, spread them over the table
+        final int h = System.identityHashCode(key) * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.googlecode.gwt.serialization;
+
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.UnsafeNativeLong;
+import com.google.gwt.user.client.rpc.IncompatibleRemoteServiceException;
+import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.client.rpc.impl.AbstractSerializationStreamReader;
+import com.google.gwt.user.client.rpc.impl.Serializer;
+
+/**
+ * Client side reader of payloads that are parsed already, in either mode: once parsed they look the same. The
+ * client side JsonStreamReader extends it with the parsing. Works only in compiled code, see
+ * {@link JsonReader#readParsed(JavaScriptObject)}.
+ * <p/>
+ * User: monkeyboy
+ */
+class JsArrayStreamReader extends AbstractSerializationStreamReader {
+    private final Serializer serializer;
+    private JavaScriptObject results;
+    private JavaScriptObject stringTable;
+    private int index;
+
+    JsArrayStreamReader(final Serializer serializer) {
+        this.serializer = serializer;
+    }
+
+    /**
+     * Reads a payload that is parsed already, like one embedded in a larger JSON document. The array is read in
+     * place, it is not copied.
+     */
+    public void prepareToRead(final JavaScriptObject payload) throws SerializationException {
+        results = payload;
+        index = getLength(results);
+        // only reads the version and the flags
+        super.prepareToRead(null);
+
+        if (getVersion() != SERIALIZATION_STREAM_VERSION) {
+            throw new IncompatibleRemoteServiceException("Expecting version " + SERIALIZATION_STREAM_VERSION
+                    + " from server, got " + getVersion() + ".");
+        }
+        if (!areFlagsValid()) {
+            throw new IncompatibleRemoteServiceException("Got an unknown flag from server: " + getFlags());
+        }
+
+        stringTable = readJavaScriptObject();
+    }
+
+    @Override
+    public native boolean readBoolean() /*-{
+        return !!this.@com.googlecode.gwt.serialization.JsArrayStreamReader::results[--this.@com.googlecode.gwt.serialization.JsArrayStreamReader::index];
+    }-*/;
+
+    @Override
+    public native byte readByte() /*-{
+        return this.@com.googlecode.gwt.serialization.JsArrayStreamReader::results[--this.@com.googlecode.gwt.serialization.JsArrayStreamReader::index];
+    }-*/;
+
+    @Override
+    public native char readChar() /*-{
+        return this.@com.googlecode.gwt.serialization.JsArrayStreamReader::results[--this.@com.googlecode.gwt.serialization.JsArrayStreamReader::index];
+    }-*/;
+
+    /**
+     * NaN and the infinities come as strings, the unary plus turns them back into numbers.
+     */
+    @Override
+    public native double readDouble() /*-{
+        return +this.@com.googlecode.gwt.serialization.JsArrayStreamReader::results[--this.@com.googlecode.gwt.serialization.JsArrayStreamReader::index];
+    }-*/;
+
+    @Override
+    public native float readFloat() /*-{
+        return +this.@com.googlecode.gwt.serialization.JsArrayStreamReader::results[--this.@com.googlecode.gwt.serialization.JsArrayStreamReader::index];
+    }-*/;
+
+    @Override
+    public native int readInt() /*-{
+        return this.@com.googlecode.gwt.serialization.JsArrayStreamReader::results[--this.@com.googlecode.gwt.serialization.JsArrayStreamReader::index];
+    }-*/;
+
+    @UnsafeNativeLong
+    @Override
+    public native long readLong() /*-{
+        var s = this.@com.googlecode.gwt.serialization.JsArrayStreamReader::results[--this.@com.googlecode.gwt.serialization.JsArrayStreamReader::index];
+        return @com.google.gwt.lang.LongLib::longFromBase64(Ljava/lang/String;)(s);
+    }-*/;
+
+    @Override
+    public native short readShort() /*-{
+        return this.@com.googlecode.gwt.serialization.JsArrayStreamReader::results[--this.@com.googlecode.gwt.serialization.JsArrayStreamReader::index];
+    }-*/;
+
+    @Override
+    public String readString() {
+        return getString(readInt());
+    }
+
+    @Override
+    protected Object deserialize(final String typeSignature) throws SerializationException {
+        final int id = reserveDecodedObjectIndex();
+        final Object instance = serializer.instantiate(this, typeSignature);
+        rememberDecodedObject(id, instance);
+        serializer.deserialize(this, instance, typeSignature);
+        return instance;
+    }
+
+    @Override
+    protected native String getString(int index) /*-{
+        // index is 1-based
+        return index > 0 ? this.@com.googlecode.gwt.serialization.JsArrayStreamReader::stringTable[index - 1] : null;
+    }-*/;
+
+    /**
+     * @return position of the next token, tokens are read from the end so it counts down
+     */
+    int getIndex() {
+        return index;
+    }
+
+    /**
+     * Moves to a position returned by {@link #getIndex()}. Skipping n tokens moves it down by n.
+     */
+    void setIndex(final int index) {
+        this.index = index;
+    }
+
+    private native JavaScriptObject readJavaScriptObject() /*-{
+        return this.@com.googlecode.gwt.serialization.JsArrayStreamReader::results[--this.@com.googlecode.gwt.serialization.JsArrayStreamReader::index];
+    }-*/;
+
+    private static native int getLength(JavaScriptObject array) /*-{
+        return array.length;
+    }-*/;
+}
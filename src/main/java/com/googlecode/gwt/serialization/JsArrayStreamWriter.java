@@ -0,0 +1,160 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.gwt.serialization;
+
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.JsArrayString;
+import com.google.gwt.lang.LongLib;
+import com.google.gwt.user.client.rpc.impl.Serializer;
+
+import java.io.IOException;
+
+/**
+ * Client side writer that pushes every token into a native array and builds the payload with one reversed join.
+ * <p/>
+ * In compiled code a StringBuilder is an array of pieces whose length() joins them, so measuring every token as
+ * the JVM writer does is quadratic on old browsers. Works only in compiled code, see {@link JsArrayWriterFactory}.
+ * <p/>
+ * User: monkeyboy
+ */
+class JsArrayStreamWriter extends JsonSerializationStreamWriter {
+    private final JsArrayString tokens = JavaScriptObject.createArray().cast();
+    private int tokenLength;
+
+    JsArrayStreamWriter(
+            final Serializer serializer,
+            final TypeSignatureCache typeSignatureCache,
+            final EscapedStringCache escapedStringCache) {
+        super(serializer, typeSignatureCache, escapedStringCache);
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        tokens.setLength(0);
+        tokenLength = 0;
+    }
+
+    @Override
+    public String toString() {
+        if (isCanonical()) {
+            // the string indexes are remapped token by token
+            return super.toString();
+        }
+        final StringBuilder stringTable = new StringBuilder();
+        try {
+            writeStringTable(getStringTable(), stringTable);
+        } catch (IOException e) {
+            // StringBuilder never throws IOException.
+            throw new RuntimeException(e);
+        }
+        return join(tokens, stringTable.toString(), getFlags(), getVersion());
+    }
+
+    @Override
+    public void writeBoolean(boolean fieldValue) {
+        pushToken(fieldValue ? "1" : "0");
+    }
+
+    @Override
+    public void writeInt(int fieldValue) {
+        pushToken(String.valueOf(fieldValue));
+    }
+
+    @Override
+    public void writeDouble(double fieldValue) {
+        final String token = String.valueOf(fieldValue);
+        if (isStrictJson() && (Double.isNaN(fieldValue) || Double.isInfinite(fieldValue))) {
+            pushToken('"' + token + '"');
+        } else {
+            pushToken(token);
+        }
+    }
+
+    @Override
+    public void writeLong(long value) {
+        final String quote = isStrictJson() ? "\"" : "'";
+        pushToken(quote + LongLib.toBase64(value) + quote);
+    }
+
+    @Override
+    protected void append(String token) {
+        assert (token != null);
+        pushToken(token);
+    }
+
+    /**
+     * The element loops of the JVM writer render into the token buffer, here the generated serializers are as fast.
+     */
+    @Override
+    boolean writePrimitiveArray(final Object instance) {
+        return false;
+    }
+
+    @Override
+    void writeRawToken(final String text, final int start, final int end) {
+        pushToken(text.substring(start, end));
+    }
+
+    @Override
+    void writeTokens(final JsonSerializationStreamWriter source, final int start, final int end) {
+        final StringBuilder token = new StringBuilder();
+        try {
+            for (int i = start; i < end; i++) {
+                token.setLength(0);
+                source.appendToken(token, i);
+                pushToken(token.toString());
+            }
+        } catch (IOException e) {
+            // StringBuilder never throws IOException.
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    void appendToken(final Appendable out, final int index) throws IOException {
+        out.append(tokens.get(index));
+    }
+
+    @Override
+    int getTokenCount() {
+        return tokens.length();
+    }
+
+    @Override
+    int getTokenLength() {
+        return tokenLength;
+    }
+
+    private void pushToken(final String token) {
+        tokens.push(token);
+        tokenLength += token.length();
+        checkPayloadLength(0);
+    }
+
+    private static native String join(JsArrayString tokens, String stringTable, int flags, int version) /*-{
+        var n = tokens.length;
+        var reversed = new Array(n + 3);
+        for (var i = 0; i < n; i++) {
+            reversed[n - 1 - i] = tokens[i];
+        }
+        reversed[n] = stringTable;
+        reversed[n + 1] = flags;
+        reversed[n + 2] = version;
+        return '[' + reversed.join(',') + ']';
+    }-*/;
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.gwt.serialization;
+
+/**
+ * Pre-serialized subgraph, like a list of countries, that is spliced into payloads instead of being serialized
+ * every time. Created by {@link JsonWriterImpl#addFragment(Object)}.
+ * <p/>
+ * Tokens are kept in write order, string and back-reference tokens are renumbered when the fragment is spliced.
+ * <p/>
+ * User: monkeyboy
+ */
+public final class JsonFragment {
+    /**
+     * All tokens one after another.
+     */
+    final String text;
+    final int[] tokenEnds;
+    /**
+     * For every token: the index into {@link #strings} + 1 for strings, the token value for back-references and 0
+     * for everything else.
+     */
+    final int[] references;
+    final String[] strings;
+    /**
+     * Number of objects in the fragment, the root included.
+     */
+    final int objectCount;
+    /**
+     * Strict JSON mode the tokens were rendered in, the fragment is only spliced into payloads of the same mode.
+     */
+    final boolean strictJson;
+
+    JsonFragment(final String text, final int[] tokenEnds, final int[] references, final String[] strings,
+                 final int objectCount, final boolean strictJson) {
+        this.text = text;
+        this.tokenEnds = tokenEnds;
+        this.references = references;
+        this.strings = strings;
+        this.objectCount = objectCount;
+        this.strictJson = strictJson;
+    }
+
+    public int getObjectCount() {
+        return objectCount;
+    }
+}
@@ -16,9 +16,52 @@
 
 package com.googlecode.gwt.serialization;
 
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+import java.util.List;
+
 /**
  * User: monkeyboy
  */
 public interface JsonReader<T> {
     T read(String jsonString);
+
+    /**
+     * Reads a payload that is parsed already, for example a field of a larger JSON document, without turning it
+     * back into a String. Works in compiled code only.
+     *
+     * @param payload the payload array, written in either mode
+     */
+    T readParsed(JavaScriptObject payload);
+
+    /**
+     * Reads a payload written by {@link JsonWriter#writeAll(Iterable)}.
+     */
+    List<T> readAll(String jsonString);
+
+    /**
+     * Reads like {@link #read(String)} in slices of the scheduler, so the browser stays responsive. The payload is
+     * parsed in a slice of its own, the object graph is decoded in the next one. That slice is not bounded by the
+     * time budget: the field serializers are recursive and can't be suspended, so a big graph still blocks while
+     * it is decoded. Split such data into models and use {@link #readAllAsync(String, AsyncCallback)}.
+     */
+    void readAsync(String jsonString, AsyncCallback<T> callback);
+
+    /**
+     * Reads like {@link #readAll(String)} in slices of the scheduler. Models are decoded one after another until
+     * the time budget of the slice is used up; a single model is always decoded in one slice.
+     */
+    void readAllAsync(String jsonString, AsyncCallback<List<T>> callback);
+
+    /**
+     * Rebuilds the model written by {@link JsonWriter#writeDelta(Object, Object)}. Unchanged objects of the baseline
+     * are shared with the returned model, the baseline itself is not changed. The patch carries a hash of the
+     * baseline; a baseline that doesn't match it, like a copy whose elements come in another order, fails the read.
+     *
+     * @param baseline the baseline given to writeDelta, or an equal copy of it
+     * @param patch    the delta
+     * @return the current model
+     */
+    T applyDelta(T baseline, String patch);
 }
@@ -16,20 +16,70 @@
 
 package com.googlecode.gwt.serialization;
 
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.core.client.Scheduler.RepeatingCommand;
+import com.google.gwt.user.client.rpc.AsyncCallback;
 import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.client.rpc.impl.AbstractSerializationStreamReader;
 import com.google.gwt.user.client.rpc.impl.ClientSerializationStreamReader;
 import com.google.gwt.user.client.rpc.impl.Serializer;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * User: monkeyboy
  */
 public class JsonReaderImpl<T> implements JsonReader<T> {
-    private final ClientSerializationStreamReader reader;
+    /**
+     * Milliseconds of one slice of an asynchronous read, leaves most of a 60 fps frame to the browser.
+     */
+    public static final int DEFAULT_SLICE_BUDGET = 8;
+
+    private final Serializer serializer;
+    private AbstractSerializationStreamReader reader;
+    private boolean strictJson;
+    /**
+     * Reader for parsed payloads, created on first use.
+     */
+    private JsArrayStreamReader parsedReader;
+    private int sliceBudget = DEFAULT_SLICE_BUDGET;
+    private Scheduler scheduler;
 
     public JsonReaderImpl(final Serializer serializer) {
+        this.serializer = serializer;
         reader = new ClientSerializationStreamReader(serializer);
     }
 
+    /**
+     * Reads payloads written in strict JSON mode with the {@link JsonStreamReader}, which parses them instead of
+     * evaluating them. See {@link JsonWriterImpl#setStrictJson(boolean)}.
+     */
+    public void setStrictJson(final boolean strictJson) {
+        this.strictJson = strictJson;
+        reader = createReader();
+    }
+
+    public boolean isStrictJson() {
+        return strictJson;
+    }
+
+    /**
+     * @param sliceBudget milliseconds an asynchronous read may take before it yields to the browser
+     */
+    public void setSliceBudget(final int sliceBudget) {
+        this.sliceBudget = sliceBudget;
+    }
+
+    public int getSliceBudget() {
+        return sliceBudget;
+    }
+
+    void setScheduler(final Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public T read(final String jsonString) {
@@ -40,4 +90,137 @@ public class JsonReaderImpl<T> implements JsonReader<T> {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Once parsed, payloads of both modes look the same, so they are all read by a {@link JsArrayStreamReader}.
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public T readParsed(final JavaScriptObject payload) {
+        if (parsedReader == null) {
+            parsedReader = new JsArrayStreamReader(serializer);
+        }
+        try {
+            parsedReader.prepareToRead(payload);
+            return (T) parsedReader.readObject();
+        } catch (SerializationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public List<T> readAll(final String jsonString) {
+        try {
+            reader.prepareToRead(jsonString);
+            final int size = reader.readInt();
+            final List<T> models = new ArrayList<T>(size);
+            for (int i = 0; i < size; i++) {
+                models.add((T) reader.readObject());
+            }
+            return models;
+        } catch (SerializationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void readAsync(final String jsonString, final AsyncCallback<T> callback) {
+        schedule(new AsyncRead(jsonString, false, new AsyncCallback<List<T>>() {
+            @Override
+            public void onFailure(final Throwable caught) {
+                callback.onFailure(caught);
+            }
+
+            @Override
+            public void onSuccess(final List<T> models) {
+                callback.onSuccess(models.get(0));
+            }
+        }));
+    }
+
+    @Override
+    public void readAllAsync(final String jsonString, final AsyncCallback<List<T>> callback) {
+        schedule(new AsyncRead(jsonString, true, callback));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public T applyDelta(final T baseline, final String patch) {
+        try {
+            // the baseline is walked like the writer did, to number its objects and strings
+            final DeltaStreamWriter baselineSlots = new DeltaStreamWriter(serializer, new TypeSignatureCache());
+            baselineSlots.walk(baseline);
+
+            // patches are always strict JSON
+            final JsonStreamReader in = new JsonStreamReader(serializer);
+            in.prepareToRead(patch);
+            return (T) new DeltaReader(serializer, baselineSlots, in).getRoot();
+        } catch (SerializationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private AbstractSerializationStreamReader createReader() {
+        return strictJson ? new JsonStreamReader(serializer) : new ClientSerializationStreamReader(serializer);
+    }
+
+    private void schedule(final RepeatingCommand command) {
+        if (scheduler == null) {
+            scheduler = Scheduler.get();
+        }
+        scheduler.scheduleIncremental(command);
+    }
+
+    /**
+     * Asynchronous read with a reader of its own, so reads in between the slices don't disturb it. A slice ends
+     * between two models, a single model is always decoded at once.
+     */
+    private final class AsyncRead implements RepeatingCommand {
+        private final String jsonString;
+        /**
+         * True for payloads of writeAll, which start with the number of models.
+         */
+        private final boolean all;
+        private final AsyncCallback<List<T>> callback;
+        private AbstractSerializationStreamReader in;
+        private List<T> models;
+        private int size;
+
+        AsyncRead(final String jsonString, final boolean all, final AsyncCallback<List<T>> callback) {
+            this.jsonString = jsonString;
+            this.all = all;
+            this.callback = callback;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public boolean execute() {
+            final long start = System.currentTimeMillis();
+            try {
+                if (in == null) {
+                    // the parse can't be split, it gets a slice of its own
+                    in = createReader();
+                    in.prepareToRead(jsonString);
+                    size = all ? in.readInt() : 1;
+                    models = new ArrayList<T>(size);
+                    return true;
+                }
+                while (models.size() < size) {
+                    models.add((T) in.readObject());
+                    if (models.size() < size && System.currentTimeMillis() - start >= sliceBudget) {
+                        return true;
+                    }
+                }
+            } catch (SerializationException e) {
+                callback.onFailure(e);
+                return false;
+            } catch (RuntimeException e) {
+                callback.onFailure(e);
+                return false;
+            }
+            callback.onSuccess(models);
+            return false;
+        }
+    }
 }
@@ -16,12 +16,17 @@
 
 package com.googlecode.gwt.serialization;
 
-import com.google.gwt.lang.LongLib;
 import com.google.gwt.user.client.rpc.SerializationException;
 import com.google.gwt.user.client.rpc.impl.AbstractSerializationStreamWriter;
 import com.google.gwt.user.client.rpc.impl.Serializer;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * User: monkeyboy
@@ -34,15 +39,98 @@ public class JsonSerializationStreamWriter extends AbstractSerializationStreamWr
     private static final int NUMBER_OF_JS_ESCAPED_CHARS = 128;
     private static final char[] JS_CHARS_ESCAPED = new char[NUMBER_OF_JS_ESCAPED_CHARS];
 
-    private static final String SEPARATOR = ",";
+    private static final char SEPARATOR = ',';
+    private static final int INITIAL_TOKEN_CAPACITY = 64;
+    /**
+     * Buffers bigger than this are dropped on {@link #reset()} so a single huge payload doesn't stay in memory.
+     */
+    private static final int MAX_RETAINED_BUFFER_CAPACITY = 64 * 1024;
+    private static final int MAX_RETAINED_TOKEN_CAPACITY = 16 * 1024;
+    /**
+     * Tree mode keeps this many ancestors in an array, deeper ones go into an identity map.
+     */
+    private static final int SHALLOW_PATH_DEPTH = 64;
+    /**
+     * The primitive array loops check the payload limit when the element index has none of these bits set.
+     */
+    private static final int LIMIT_CHECK_MASK = 255;
+    /**
+     * Upper bound of {@link #getFrameLength()}.
+     */
+    private static final int MAX_FRAME_LENGTH = 26;
 
     private final Serializer serializer;
-    private final StringBuilder encodeBuilder = new StringBuilder();
+    private final TypeSignatureCache typeSignatureCache;
+    private final EscapedStringCache escapedStringCache;
+    /**
+     * Tokens are appended forward, one after another, without separators. The end offset of every
+     * token is kept in {@link #tokenEnds} so the tokens can be emitted in reverse order in one pass.
+     */
+    private StringBuilder tokenBuffer = new StringBuilder();
+    private int[] tokenEnds = new int[INITIAL_TOKEN_CAPACITY];
+    private int tokenCount;
+
+    /**
+     * Replaces the boxing IdentityHashMap of the base class for back-references.
+     */
+    private final IdentityIntMap objectIndexes = new IdentityIntMap();
+    private int objectCount;
+    /**
+     * Classes whose equal instances are written once, null if there are none.
+     */
+    private Set<Class<?>> immutableTypes;
+    /**
+     * Indexes of immutable instances by class and value, so an equals that matches other classes can't mix them up.
+     */
+    private final Map<Class<?>, Map<Object, Integer>> immutableIndexes = new HashMap<Class<?>, Map<Object, Integer>>();
+
+    private boolean treeMode;
+    private boolean canonical;
+    private boolean strictJson;
+    /**
+     * Set while a fragment is recorded.
+     */
+    private boolean recordingFragment;
+    /**
+     * In canonical mode and while recording a fragment: pairs of token position and value of every token that refers
+     * to the string table (positive string index) or, only while recording, to an earlier object (back-reference).
+     */
+    private int[] referenceTokens;
+    private int referenceTokenCount;
+    /**
+     * Pre-serialized subgraphs by their root, null if there are none.
+     */
+    private Map<Object, JsonFragment> fragments;
+    private int maxPayloadLength = Integer.MAX_VALUE;
+    /**
+     * Length of the string table written so far: quotes, separators and, when there is a limit, the escapes.
+     */
+    private int stringTableLength;
+    /**
+     * Objects being serialized in tree mode, from the root down to the current one.
+     */
+    private final Object[] shallowPath = new Object[SHALLOW_PATH_DEPTH];
+    private Map<Object, Boolean> deepPath;
+    private int pathDepth;
+
+    /**
+     * Digits of the base 64 encoding used by LongLib.toBase64.
+     */
+    private static final char BASE64_DIGITS[] =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789$_".toCharArray();
 
     private static final char NIBBLE_TO_HEX_CHAR[] = {
             '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D',
             'E', 'F'};
 
+    /**
+     * One bit for every char of the BMP (8 KB), set if the char needs to be escaped.
+     * Supplementary characters are written as surrogate pairs and surrogates are always escaped,
+     * so the bitmap covers them too. It is filled from the generated {@link EscapeRanges}, so the character tables
+     * are not loaded when the writer is.
+     */
+    private static final int[] ESCAPE_BITMAP = createEscapeBitmap();
+
     static {
         JS_CHARS_ESCAPED['\u0000'] = '0';
         JS_CHARS_ESCAPED['\b'] = 'b';
@@ -55,114 +143,908 @@ public class JsonSerializationStreamWriter extends AbstractSerializationStreamWr
     }
 
     public JsonSerializationStreamWriter(final Serializer serializer) {
+        this(serializer, null);
+    }
+
+    /**
+     * @param escapedStringCache cache of escaped string table entries, can be null
+     */
+    public JsonSerializationStreamWriter(final Serializer serializer, final EscapedStringCache escapedStringCache) {
+        this(serializer, new TypeSignatureCache(), escapedStringCache);
+    }
+
+    JsonSerializationStreamWriter(
+            final Serializer serializer,
+            final TypeSignatureCache typeSignatureCache,
+            final EscapedStringCache escapedStringCache) {
         this.serializer = serializer;
+        this.typeSignatureCache = typeSignatureCache;
+        this.escapedStringCache = escapedStringCache;
+    }
+
+    /**
+     * In tree mode objects are not tracked for back-references, which saves a hash map insert per object.
+     * Use it only for models without shared objects: a shared object is written more than once, and a cycle
+     * fails with a {@link SerializationException}.
+     */
+    public void setTreeMode(final boolean treeMode) {
+        this.treeMode = treeMode;
+    }
+
+    public boolean isTreeMode() {
+        return treeMode;
+    }
+
+    /**
+     * In canonical mode the string table is sorted, so the same strings always give the same table, and strings
+     * with common prefixes, like the type signatures of a package, sit next to each other and compress better.
+     * Must be set before writing.
+     */
+    public void setCanonical(final boolean canonical) {
+        this.canonical = canonical;
+    }
+
+    public boolean isCanonical() {
+        return canonical;
+    }
+
+    /**
+     * In strict JSON mode the payload can be parsed with JSON.parse, see {@link JsonStreamReader}: longs are
+     * written in double quotes, NaN and the infinities as strings, and the string table uses only JSON escapes.
+     */
+    public void setStrictJson(final boolean strictJson) {
+        this.strictJson = strictJson;
+    }
+
+    public boolean isStrictJson() {
+        return strictJson;
+    }
+
+    /**
+     * Registered roots are not serialized, their pre-serialized fragments are spliced in instead. The map is not
+     * copied.
+     *
+     * @param fragments fragments by their root, or null
+     */
+    public void setFragments(final Map<Object, JsonFragment> fragments) {
+        this.fragments = fragments == null || fragments.isEmpty() ? null : fragments;
+    }
+
+    /**
+     * Equal instances of these classes are written once, see {@link Immutable}. The set is not copied.
+     *
+     * @param immutableTypes the classes or null
+     */
+    public void setImmutableTypes(final Set<Class<?>> immutableTypes) {
+        this.immutableTypes = immutableTypes == null || immutableTypes.isEmpty() ? null : immutableTypes;
+    }
+
+    /**
+     * Limits the payload length, the write fails with a {@link PayloadTooLargeException} as soon as the limit is
+     * crossed. The length is counted in chars, escapes and the enclosing brackets, flags and version included.
+     */
+    public void setMaxPayloadLength(final int maxPayloadLength) {
+        this.maxPayloadLength = maxPayloadLength;
+    }
+
+    public int getMaxPayloadLength() {
+        return maxPayloadLength;
+    }
+
+    /**
+     * Clears the writer so it can be used for the next payload. Buffer capacity is kept, up to a limit.
+     */
+    public void reset() {
+        prepareToWrite();
+        setFlags(DEFAULT_FLAGS);
+        treeMode = false;
+        canonical = false;
+        strictJson = false;
+        recordingFragment = false;
+        fragments = null;
+        maxPayloadLength = Integer.MAX_VALUE;
+        immutableTypes = null;
+        // a failed write may leave the tree path behind
+        for (int i = Math.min(pathDepth, SHALLOW_PATH_DEPTH) - 1; i >= 0; i--) {
+            shallowPath[i] = null;
+        }
+        pathDepth = 0;
+        deepPath = null;
+        if (tokenBuffer.capacity() > MAX_RETAINED_BUFFER_CAPACITY) {
+            tokenBuffer = new StringBuilder();
+        } else {
+            tokenBuffer.setLength(0);
+        }
+        if (tokenEnds.length > MAX_RETAINED_TOKEN_CAPACITY) {
+            tokenEnds = new int[INITIAL_TOKEN_CAPACITY];
+        }
+        if (referenceTokens != null && referenceTokens.length > MAX_RETAINED_TOKEN_CAPACITY) {
+            referenceTokens = null;
+        }
+        tokenCount = 0;
+    }
+
+    /**
+     * Reserves room for a payload of the given size, so the buffers don't have to grow while writing.
+     *
+     * @param tokens expected number of tokens
+     * @param chars  expected number of chars of all tokens together
+     */
+    public void presize(final int tokens, final int chars) {
+        presize(tokens, chars, 0);
+    }
+
+    /**
+     * @param objects expected number of objects tracked for back-references
+     */
+    public void presize(final int tokens, final int chars, final int objects) {
+        reserveTokens(tokens);
+        tokenBuffer.ensureCapacity(chars);
+        if (!treeMode) {
+            objectIndexes.ensureCapacity(objects);
+        }
+    }
+
+    int getObjectCount() {
+        return objectCount;
+    }
+
+    int getTokenCount() {
+        return tokenCount;
+    }
+
+    int getTokenLength() {
+        return tokenBuffer.length();
+    }
+
+    int getTokenCapacity() {
+        return tokenEnds.length;
+    }
+
+    int getTokenBufferCapacity() {
+        return tokenBuffer.capacity();
+    }
+
+    /**
+     * Cheap estimate of the payload length. It is exact unless some strings need escaping.
+     */
+    int estimatePayloadLength() {
+        int length = getTokenLength() + getTokenCount() + 16;
+        final List<String> stringTable = getStringTable();
+        for (int i = 0, n = stringTable.size(); i < n; i++) {
+            // quotes and separator
+            length += stringTable.get(i).length() + 3;
+        }
+        return length;
     }
 
     @Override
     public String toString() {
-        // String se radi unatrag jer tako ga reader čita.
-        final StringBuilder sb = new StringBuilder();
-        sb.append("]");
-        sb.insert(0, SEPARATOR + String.valueOf(getVersion()));
-        sb.insert(0, SEPARATOR + String.valueOf(getFlags()));
-        writeStringTable(sb);
-        // ako je na početku zarez treba ga maknut.
-        if (encodeBuilder.indexOf(SEPARATOR) == 0) {
-            encodeBuilder.delete(0, 1);
-        }
-        sb.insert(0, "[" + encodeBuilder);
+        final StringBuilder sb = new StringBuilder(estimatePayloadLength());
+        try {
+            writeTo(sb);
+        } catch (IOException e) {
+            // StringBuilder never throws IOException.
+            throw new RuntimeException(e);
+        }
         return sb.toString();
     }
 
+    /**
+     * Streams the payload straight into the given sink, without building the whole payload as a String first.
+     *
+     * @param out the sink the payload is written to
+     * @throws IOException if the sink fails
+     */
+    public void writeTo(final Appendable out) throws IOException {
+        List<String> stringTable = getStringTable();
+        // old -> new string index, only in canonical mode
+        int[] stringIndexes = null;
+        if (canonical && referenceTokenCount > 0) {
+            final String[] sorted = stringTable.toArray(new String[stringTable.size()]);
+            Arrays.sort(sorted);
+            stringIndexes = new int[sorted.length + 1];
+            for (int i = 0; i < sorted.length; i++) {
+                stringIndexes[i + 1] = Arrays.binarySearch(sorted, stringTable.get(i)) + 1;
+            }
+            stringTable = Arrays.asList(sorted);
+        }
+
+        out.append('[');
+        // String se radi unatrag jer tako ga reader čita.
+        int referenceToken = 2 * referenceTokenCount - 2;
+        for (int i = getTokenCount() - 1; i >= 0; i--) {
+            if (stringIndexes != null && referenceToken >= 0 && referenceTokens[referenceToken] == i) {
+                final int value = referenceTokens[referenceToken + 1];
+                referenceToken -= 2;
+                if (value > 0) {
+                    out.append(String.valueOf(stringIndexes[value])).append(SEPARATOR);
+                    continue;
+                }
+            }
+            appendToken(out, i);
+            out.append(SEPARATOR);
+        }
+        writeStringTable(stringTable, out);
+        out.append(SEPARATOR).append(String.valueOf(getFlags()));
+        out.append(SEPARATOR).append(String.valueOf(getVersion()));
+        out.append(']');
+    }
+
+    // Numbers are rendered straight into the token buffer, without temporary Strings.
+
+    @Override
+    public void writeString(String value) {
+        final int index = addString(value);
+        writeInt(index);
+        if ((canonical || recordingFragment) && index > 0) {
+            recordReferenceToken(index);
+        }
+    }
+
+    /**
+     * Registered fragments are spliced in instead of being serialized, unless they were recorded in the other strict
+     * JSON mode. While recording a fragment, back-references are remembered so they can be moved when the fragment
+     * is spliced.
+     */
+    @Override
+    public void writeObject(Object instance) throws SerializationException {
+        if (instance != null && (fragments != null || recordingFragment)) {
+            final int index = getIndexForObject(instance);
+            if (index >= 0) {
+                writeBackReference(index);
+                return;
+            }
+            final JsonFragment fragment = fragments == null ? null : fragments.get(instance);
+            if (fragment != null && fragment.strictJson == strictJson) {
+                splice(instance, fragment);
+                return;
+            }
+        }
+        super.writeObject(instance);
+    }
+
+    @Override
+    public void writeBoolean(boolean fieldValue) {
+        tokenBuffer.append(fieldValue ? '1' : '0');
+        endToken();
+    }
+
+    @Override
+    public void writeByte(byte fieldValue) {
+        writeInt(fieldValue);
+    }
+
+    @Override
+    public void writeChar(char ch) {
+        // just use an int, it's more foolproof
+        writeInt(ch);
+    }
+
+    @Override
+    public void writeShort(short value) {
+        writeInt(value);
+    }
+
+    @Override
+    public void writeInt(int fieldValue) {
+        tokenBuffer.append(fieldValue);
+        endToken();
+    }
+
+    @Override
+    public void writeDouble(double fieldValue) {
+        appendDouble(fieldValue);
+        endToken();
+    }
+
+    /**
+     * Same encoding as LongLib.toBase64, written in quotes straight into the token buffer.
+     */
     @Override
     public void writeLong(long value) {
-        encodeBuilder.insert(0, SEPARATOR + "'" + LongLib.toBase64(value) + "'");
+        // Convert to ints early to avoid need for long ops
+        final int low = (int) value;
+        final int high = (int) (value >> 32);
+
+        final char quote = strictJson ? JS_QUOTE_CHAR : '\'';
+        tokenBuffer.append(quote);
+        boolean haveNonZero = appendBase64Digit((high >> 28) & 0xf, false);
+        haveNonZero = appendBase64Digit((high >> 22) & 0x3f, haveNonZero);
+        haveNonZero = appendBase64Digit((high >> 16) & 0x3f, haveNonZero);
+        haveNonZero = appendBase64Digit((high >> 10) & 0x3f, haveNonZero);
+        haveNonZero = appendBase64Digit((high >> 4) & 0x3f, haveNonZero);
+        haveNonZero = appendBase64Digit(((high & 0xf) << 2) | ((low >> 30) & 0x3), haveNonZero);
+        haveNonZero = appendBase64Digit((low >> 24) & 0x3f, haveNonZero);
+        haveNonZero = appendBase64Digit((low >> 18) & 0x3f, haveNonZero);
+        haveNonZero = appendBase64Digit((low >> 12) & 0x3f, haveNonZero);
+        appendBase64Digit((low >> 6) & 0x3f, haveNonZero);
+        appendBase64Digit(low & 0x3f, true);
+        tokenBuffer.append(quote);
+        endToken();
     }
 
     @Override
     protected void append(String token) {
         assert (token != null);
-        encodeBuilder.insert(0, SEPARATOR + token);
+        tokenBuffer.append(token);
+        endToken();
     }
 
     @Override
     protected String getObjectTypeSignature(Object instance) throws SerializationException {
+        final Class<?> instanceClass = instance.getClass();
+        final String cached = typeSignatureCache.get(instanceClass);
+        if (cached != null) {
+            return cached;
+        }
+
         final Class<?> clazz;
 
         if (instance instanceof Enum<?>) {
             final Enum<?> e = (Enum<?>) instance;
             clazz = e.getDeclaringClass();
         } else {
-            clazz = instance.getClass();
+            clazz = instanceClass;
+        }
+        final String signature = serializer.getSerializationSignature(clazz);
+        if (signature != null) {
+            typeSignatureCache.put(instanceClass, signature);
+        }
+        return signature;
+    }
+
+    @Override
+    public void prepareToWrite() {
+        super.prepareToWrite();
+        objectIndexes.clear();
+        objectCount = 0;
+        // the maps of the classes are kept for the next payload, unless they grew too big
+        for (Map.Entry<Class<?>, Map<Object, Integer>> entry : immutableIndexes.entrySet()) {
+            if (entry.getValue().size() > MAX_RETAINED_TOKEN_CAPACITY) {
+                entry.setValue(new HashMap<Object, Integer>());
+            } else {
+                entry.getValue().clear();
+            }
+        }
+        stringTableLength = 0;
+        referenceTokenCount = 0;
+    }
+
+    @Override
+    protected int addString(String string) {
+        final int tableSize = getStringTable().size();
+        final int index = super.addString(string);
+        if (index > tableSize) {
+            // quotes and separator, escapes are only counted when there is a limit
+            final int length = maxPayloadLength == Integer.MAX_VALUE
+                    ? string.length()
+                    : escapedLength(string, strictJson);
+            stringTableLength += length + 3;
+            checkPayloadLength(0);
+        }
+        return index;
+    }
+
+    /**
+     * Immutable instances are also looked up by value, this works in tree mode too.
+     */
+    @Override
+    protected int getIndexForObject(Object instance) {
+        if (!treeMode) {
+            final int index = objectIndexes.get(instance);
+            if (index >= 0) {
+                return index;
+            }
+        }
+        if (immutableTypes != null && immutableTypes.contains(instance.getClass())) {
+            final Map<Object, Integer> indexes = immutableIndexes.get(instance.getClass());
+            final Integer index = indexes == null ? null : indexes.get(instance);
+            if (index != null) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Every object is counted, even in tree mode, because back-reference indexes must match the reader's.
+     */
+    @Override
+    protected void saveIndexForObject(Object instance) {
+        final int index = objectCount++;
+        if (!treeMode) {
+            objectIndexes.put(instance, index);
+        }
+        if (immutableTypes != null && immutableTypes.contains(instance.getClass())) {
+            Map<Object, Integer> indexes = immutableIndexes.get(instance.getClass());
+            if (indexes == null) {
+                indexes = new HashMap<Object, Integer>();
+                immutableIndexes.put(instance.getClass(), indexes);
+            }
+            indexes.put(instance, index);
         }
-        return serializer.getSerializationSignature(clazz);
     }
 
     @Override
     protected void serialize(Object instance, String typeSignature) throws SerializationException {
-        serializer.serialize(this, instance, typeSignature);
+        if (typeSignature != null && writePrimitiveArray(instance)) {
+            return;
+        }
+        if (treeMode) {
+            enterTreeNode(instance);
+            try {
+                serializer.serialize(this, instance, typeSignature);
+            } finally {
+                exitTreeNode(instance);
+            }
+        } else {
+            serializer.serialize(this, instance, typeSignature);
+        }
+    }
+
+    /**
+     * Fails if the instance is one of its own ancestors. Shallow ancestors are simply scanned, which is cheaper than
+     * hashing for usual model depths.
+     */
+    private void enterTreeNode(final Object instance) throws SerializationException {
+        final int shallowDepth = Math.min(pathDepth, SHALLOW_PATH_DEPTH);
+        for (int i = 0; i < shallowDepth; i++) {
+            if (shallowPath[i] == instance) {
+                throw cycleException(instance);
+            }
+        }
+        if (pathDepth < SHALLOW_PATH_DEPTH) {
+            shallowPath[pathDepth] = instance;
+        } else {
+            if (deepPath == null) {
+                deepPath = new IdentityHashMap<Object, Boolean>();
+            }
+            if (deepPath.put(instance, Boolean.TRUE) != null) {
+                throw cycleException(instance);
+            }
+        }
+        pathDepth++;
     }
 
-    private void writeStringTable(final StringBuilder builder) {
-        final StringBuilder sb = new StringBuilder();
-        sb.append("[");
+    private void exitTreeNode(final Object instance) {
+        pathDepth--;
+        if (pathDepth < SHALLOW_PATH_DEPTH) {
+            shallowPath[pathDepth] = null;
+        } else {
+            deepPath.remove(instance);
+        }
+    }
+
+    private static SerializationException cycleException(final Object instance) {
+        return new SerializationException("Cycle found in tree mode at an instance of " + instance.getClass().getName());
+    }
+
+    /**
+     * Bulk paths for primitive arrays. They write the same tokens as the generated array field serializers
+     * (length followed by the elements), but reserve the space once and fill it in a tight loop. The payload limit
+     * is checked every {@link #LIMIT_CHECK_MASK} + 1 elements, so a write can only overshoot it by one such run.
+     *
+     * @return false if the instance is not a primitive array
+     */
+    boolean writePrimitiveArray(final Object instance) {
+        if (instance instanceof double[]) {
+            final double[] values = (double[]) instance;
+            writeArrayLength(values.length, 12);
+            for (int i = 0; i < values.length; i++) {
+                if ((i & LIMIT_CHECK_MASK) == 0) {
+                    checkPayloadLength(0);
+                }
+                appendDouble(values[i]);
+                tokenEnds[tokenCount++] = tokenBuffer.length();
+            }
+        } else if (instance instanceof int[]) {
+            final int[] values = (int[]) instance;
+            writeArrayLength(values.length, 6);
+            for (int i = 0; i < values.length; i++) {
+                if ((i & LIMIT_CHECK_MASK) == 0) {
+                    checkPayloadLength(0);
+                }
+                tokenBuffer.append(values[i]);
+                tokenEnds[tokenCount++] = tokenBuffer.length();
+            }
+        } else if (instance instanceof long[]) {
+            final long[] values = (long[]) instance;
+            writeArrayLength(values.length, 8);
+            for (long value : values) {
+                writeLong(value);
+            }
+        } else if (instance instanceof byte[]) {
+            final byte[] values = (byte[]) instance;
+            writeArrayLength(values.length, 3);
+            for (int i = 0; i < values.length; i++) {
+                if ((i & LIMIT_CHECK_MASK) == 0) {
+                    checkPayloadLength(0);
+                }
+                tokenBuffer.append(values[i]);
+                tokenEnds[tokenCount++] = tokenBuffer.length();
+            }
+        } else if (instance instanceof char[]) {
+            final char[] values = (char[]) instance;
+            writeArrayLength(values.length, 3);
+            for (int i = 0; i < values.length; i++) {
+                if ((i & LIMIT_CHECK_MASK) == 0) {
+                    checkPayloadLength(0);
+                }
+                // just use an int, it's more foolproof
+                tokenBuffer.append((int) values[i]);
+                tokenEnds[tokenCount++] = tokenBuffer.length();
+            }
+        } else if (instance instanceof boolean[]) {
+            final boolean[] values = (boolean[]) instance;
+            writeArrayLength(values.length, 1);
+            for (int i = 0; i < values.length; i++) {
+                if ((i & LIMIT_CHECK_MASK) == 0) {
+                    checkPayloadLength(0);
+                }
+                tokenBuffer.append(values[i] ? '1' : '0');
+                tokenEnds[tokenCount++] = tokenBuffer.length();
+            }
+        } else if (instance instanceof float[]) {
+            final float[] values = (float[]) instance;
+            writeArrayLength(values.length, 12);
+            for (int i = 0; i < values.length; i++) {
+                if ((i & LIMIT_CHECK_MASK) == 0) {
+                    checkPayloadLength(0);
+                }
+                appendDouble(values[i]);
+                tokenEnds[tokenCount++] = tokenBuffer.length();
+            }
+        } else if (instance instanceof short[]) {
+            final short[] values = (short[]) instance;
+            writeArrayLength(values.length, 4);
+            for (int i = 0; i < values.length; i++) {
+                if ((i & LIMIT_CHECK_MASK) == 0) {
+                    checkPayloadLength(0);
+                }
+                tokenBuffer.append(values[i]);
+                tokenEnds[tokenCount++] = tokenBuffer.length();
+            }
+        } else {
+            return false;
+        }
+        checkPayloadLength(0);
+        return true;
+    }
+
+    /**
+     * Writes the array length and reserves room for the elements, but never more than the payload limit allows.
+     *
+     * @param charsPerElement estimated number of chars of one element
+     */
+    private void writeArrayLength(final int length, final int charsPerElement) {
+        writeInt(length);
+        // every element takes at least a digit and a separator
+        checkPayloadLength(2 * length);
+        reserveTokens(length);
+        // int math like checkPayloadLength, the division keeps the product from overflowing
+        final int room = maxPayloadLength - getTokenLength();
+        tokenBuffer.ensureCapacity(tokenBuffer.length()
+                + (length > room / charsPerElement ? room : length * charsPerElement));
+    }
+
+    /**
+     * JSON has no literals for NaN and the infinities, in strict mode they are written as strings.
+     */
+    private void appendDouble(final double value) {
+        if (strictJson && (Double.isNaN(value) || Double.isInfinite(value))) {
+            tokenBuffer.append(JS_QUOTE_CHAR).append(value).append(JS_QUOTE_CHAR);
+        } else {
+            tokenBuffer.append(value);
+        }
+    }
+
+    /**
+     * Leading zero digits are skipped.
+     */
+    private boolean appendBase64Digit(final int digit, final boolean haveNonZero) {
+        if (digit == 0 && !haveNonZero) {
+            return false;
+        }
+        tokenBuffer.append(BASE64_DIGITS[digit]);
+        return true;
+    }
+
+    private void writeBackReference(final int index) {
+        writeInt(-(index + 1));
+        if (recordingFragment) {
+            recordReferenceToken(-(index + 1));
+        }
+    }
+
+    /**
+     * Remembers the value of the token that was just written, see {@link #referenceTokens}.
+     */
+    private void recordReferenceToken(final int value) {
+        if (referenceTokens == null) {
+            referenceTokens = new int[INITIAL_TOKEN_CAPACITY];
+        } else if (2 * referenceTokenCount == referenceTokens.length) {
+            final int[] newReferenceTokens = new int[referenceTokens.length * 2];
+            System.arraycopy(referenceTokens, 0, newReferenceTokens, 0, referenceTokens.length);
+            referenceTokens = newReferenceTokens;
+        }
+        referenceTokens[2 * referenceTokenCount] = getTokenCount() - 1;
+        referenceTokens[2 * referenceTokenCount + 1] = value;
+        referenceTokenCount++;
+    }
+
+    /**
+     * Writes the fragment as if its root was serialized here: strings are added to this string table and
+     * back-references inside the fragment are moved by the number of objects written before it.
+     */
+    private void splice(final Object root, final JsonFragment fragment) {
+        final int firstIndex = objectCount;
+        saveIndexForObject(root);
+        objectCount += fragment.objectCount - 1;
+        final String text = fragment.text;
+        final int[] ends = fragment.tokenEnds;
+        final int[] references = fragment.references;
+        reserveTokens(ends.length);
+        tokenBuffer.ensureCapacity(tokenBuffer.length() + text.length());
+        for (int i = 0; i < ends.length; i++) {
+            final int reference = references[i];
+            if (reference > 0) {
+                writeString(fragment.strings[reference - 1]);
+            } else if (reference < 0) {
+                writeBackReference(firstIndex - reference - 1);
+            } else {
+                writeRawToken(text, i == 0 ? 0 : ends[i - 1], ends[i]);
+            }
+        }
+    }
+
+    /**
+     * Serializes the subgraph so it can be spliced into later payloads. Fragments registered earlier are spliced
+     * into it. The writer has to be reset afterwards.
+     */
+    JsonFragment recordFragment(final Object root) throws SerializationException {
+        recordingFragment = true;
+        // the root itself is always serialized, even if it's registered already
+        super.writeObject(root);
+        recordingFragment = false;
+        final int count = getTokenCount();
+        final int[] references = new int[count];
+        for (int i = 0; i < referenceTokenCount; i++) {
+            references[referenceTokens[2 * i]] = referenceTokens[2 * i + 1];
+        }
+        final StringBuilder text = new StringBuilder(getTokenLength());
+        final int[] ends = new int[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                appendToken(text, i);
+                ends[i] = text.length();
+            }
+        } catch (IOException e) {
+            // StringBuilder never throws IOException.
+            throw new RuntimeException(e);
+        }
         final List<String> stringTable = getStringTable();
-        for (String s : stringTable) {
-            //append(builder, quoteString(s));
-            //sb.append("\"").append(ClientSerializationStreamWriter.quoteString(s)).append("\"").append(SEPARATOR);
-            sb.append(escapeString(s)).append(SEPARATOR);
+        return new JsonFragment(text.toString(), ends, references,
+                stringTable.toArray(new String[stringTable.size()]), objectCount, strictJson);
+    }
+
+    // Token storage. Subclasses that keep the tokens elsewhere override these together with the write methods.
+
+    /**
+     * Appends the token with the given index, tokens are numbered in write order.
+     */
+    void appendToken(final Appendable out, final int index) throws IOException {
+        out.append(tokenBuffer, index == 0 ? 0 : tokenEnds[index - 1], tokenEnds[index]);
+    }
+
+    /**
+     * @return true if the two tokens are the same
+     */
+    boolean tokenEquals(final int index, final int otherIndex) {
+        final int start = index == 0 ? 0 : tokenEnds[index - 1];
+        final int otherStart = otherIndex == 0 ? 0 : tokenEnds[otherIndex - 1];
+        final int length = tokenEnds[index] - start;
+        if (length != tokenEnds[otherIndex] - otherStart) {
+            return false;
         }
-        // obriši zadnji zarez.
-        sb.delete(sb.length() - 1, sb.length());
-        sb.append("]");
-        builder.insert(0, SEPARATOR + sb.toString());
+        for (int i = 0; i < length; i++) {
+            if (tokenBuffer.charAt(start + i) != tokenBuffer.charAt(otherStart + i)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
-     * Ovo je ukradeno iz: com.google.gwt.user.server.rpc.impl.ServerSerializationStreamWriter
+     * Copies tokens of another writer as they are, string indexes are not remapped.
      */
-    private static String escapeString(final String toEscape) {
-        // make output big enough to escape every character (plus the quotes)
-        char[] input = toEscape.toCharArray();
-        CharVector charVector = new CharVector(input.length * 2 + 2, input.length);
+    void writeTokens(final JsonSerializationStreamWriter source, final int start, final int end) {
+        try {
+            for (int i = start; i < end; i++) {
+                source.appendToken(tokenBuffer, i);
+                endToken();
+            }
+        } catch (IOException e) {
+            // StringBuilder never throws IOException.
+            throw new RuntimeException(e);
+        }
+    }
 
-        charVector.add(JS_QUOTE_CHAR);
+    /**
+     * Writes a token that is already rendered.
+     */
+    void writeRawToken(final String text, final int start, final int end) {
+        tokenBuffer.append(text, start, end);
+        endToken();
+    }
 
-        for (char c : input) {
-            if (needsUnicodeEscape(c)) {
-                unicodeEscape(c, charVector);
+    /**
+     * Marks the end of the token that was just written to the {@link #tokenBuffer}.
+     */
+    private void endToken() {
+        if (tokenCount == tokenEnds.length) {
+            reserveTokens(1);
+        }
+        tokenEnds[tokenCount++] = tokenBuffer.length();
+        checkPayloadLength(0);
+    }
+
+    /**
+     * Fails if the payload, together with the given number of chars still to be written, is over the limit.
+     */
+    void checkPayloadLength(final int pendingChars) {
+        // int math, longs are emulated on the client; an overflow needs a payload far over any sane limit
+        final int length = getTokenLength() + getTokenCount() + stringTableLength + pendingChars;
+        if (length + MAX_FRAME_LENGTH > maxPayloadLength && length + getFrameLength() > maxPayloadLength) {
+            throw new PayloadTooLargeException(maxPayloadLength);
+        }
+    }
+
+    /**
+     * @return chars of the payload outside of the tokens and strings: four brackets, the separators around the flags
+     *         and digits of the flags and the version. The strings are counted with one separator too many.
+     */
+    private int getFrameLength() {
+        return 6 + digits(getFlags()) + digits(getVersion()) - (stringTableLength > 0 ? 1 : 0);
+    }
+
+    private static int digits(final int value) {
+        int digits = 1;
+        for (int i = value; i >= 10; i /= 10) {
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Makes sure there is room for the given number of additional tokens.
+     */
+    private void reserveTokens(final int tokens) {
+        final int required = tokenCount + tokens;
+        if (required > tokenEnds.length) {
+            final int[] newTokenEnds = new int[Math.max(required, tokenEnds.length * 2)];
+            System.arraycopy(tokenEnds, 0, newTokenEnds, 0, tokenCount);
+            tokenEnds = newTokenEnds;
+        }
+    }
+
+    void writeStringTable(final List<String> stringTable, final Appendable out) throws IOException {
+        out.append('[');
+        for (int i = 0, n = stringTable.size(); i < n; i++) {
+            if (i > 0) {
+                out.append(SEPARATOR);
+            }
+            final String s = stringTable.get(i);
+            if (escapedStringCache == null) {
+                escapeString(s, out, strictJson);
             } else {
-                charVector.add(c);
+                String escaped = escapedStringCache.get(s, strictJson);
+                if (escaped == null) {
+                    final StringBuilder sb = new StringBuilder(s.length() + 2);
+                    escapeString(s, sb, strictJson);
+                    escaped = sb.toString();
+                    escapedStringCache.put(s, strictJson, escaped);
+                }
+                out.append(escaped);
             }
         }
-        charVector.add(JS_QUOTE_CHAR);
-        return String.valueOf(charVector.asArray(), 0, charVector.getSize());
+        out.append(']');
+    }
+
+    /**
+     * Writes the quoted and escaped string. Runs of chars that don't need escaping are appended as they are,
+     * so a string without such chars is copied to the output only once.
+     */
+    private static void escapeString(final String toEscape, final Appendable out, final boolean strictJson)
+            throws IOException {
+        out.append(JS_QUOTE_CHAR);
+        final int length = toEscape.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = toEscape.charAt(i);
+            if (needsUnicodeEscape(c)) {
+                if (start < i) {
+                    out.append(toEscape, start, i);
+                }
+                unicodeEscape(c, out, strictJson);
+                start = i + 1;
+            }
+        }
+        if (start == 0) {
+            out.append(toEscape);
+        } else if (start < length) {
+            out.append(toEscape, start, length);
+        }
+        out.append(JS_QUOTE_CHAR);
+    }
+
+    /**
+     * @return length of the string written by {@link #escapeString}, without the quotes
+     */
+    static int escapedLength(final String s, final boolean strictJson) {
+        int length = s.length();
+        for (int i = 0, n = s.length(); i < n; i++) {
+            final char c = s.charAt(i);
+            if (needsUnicodeEscape(c)) {
+                length += escapeLength(c, strictJson) - 1;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return length of the escape written by {@link #unicodeEscape}
+     */
+    private static int escapeLength(final char ch, final boolean strictJson) {
+        if (ch < NUMBER_OF_JS_ESCAPED_CHARS && JS_CHARS_ESCAPED[ch] != 0 && !(strictJson && ch == 0)) {
+            return 2;
+        }
+        return ch < 256 && !strictJson ? 4 : 6;
     }
 
     /**
      * Ovo je ukradeno iz: com.google.gwt.user.server.rpc.impl.ServerSerializationStreamWriter
+     * <p/>
+     * JSON has no \0 and \x escapes, in strict mode those chars get four digit unicode escapes.
      */
-    private static void unicodeEscape(char ch, CharVector charVector) {
-        charVector.add(JS_ESCAPE_CHAR);
-        if (ch < NUMBER_OF_JS_ESCAPED_CHARS && JS_CHARS_ESCAPED[ch] != 0) {
-            charVector.add(JS_CHARS_ESCAPED[ch]);
-        } else if (ch < 256) {
-            charVector.add('x');
-            charVector.add(NIBBLE_TO_HEX_CHAR[(ch >> 4) & 0x0F]);
-            charVector.add(NIBBLE_TO_HEX_CHAR[ch & 0x0F]);
+    private static void unicodeEscape(char ch, Appendable out, boolean strictJson) throws IOException {
+        out.append(JS_ESCAPE_CHAR);
+        if (ch < NUMBER_OF_JS_ESCAPED_CHARS && JS_CHARS_ESCAPED[ch] != 0 && !(strictJson && ch == 0)) {
+            out.append(JS_CHARS_ESCAPED[ch]);
+        } else if (ch < 256 && !strictJson) {
+            out.append('x');
+            out.append(NIBBLE_TO_HEX_CHAR[(ch >> 4) & 0x0F]);
+            out.append(NIBBLE_TO_HEX_CHAR[ch & 0x0F]);
         } else {
-            charVector.add('u');
-            charVector.add(NIBBLE_TO_HEX_CHAR[(ch >> 12) & 0x0F]);
-            charVector.add(NIBBLE_TO_HEX_CHAR[(ch >> 8) & 0x0F]);
-            charVector.add(NIBBLE_TO_HEX_CHAR[(ch >> 4) & 0x0F]);
-            charVector.add(NIBBLE_TO_HEX_CHAR[ch & 0x0F]);
+            out.append('u');
+            out.append(NIBBLE_TO_HEX_CHAR[(ch >> 12) & 0x0F]);
+            out.append(NIBBLE_TO_HEX_CHAR[(ch >> 8) & 0x0F]);
+            out.append(NIBBLE_TO_HEX_CHAR[(ch >> 4) & 0x0F]);
+            out.append(NIBBLE_TO_HEX_CHAR[ch & 0x0F]);
+        }
+    }
+
+    static boolean needsUnicodeEscape(final char ch) {
+        return (ESCAPE_BITMAP[ch >>> 5] & (1 << (ch & 0x1F))) != 0;
+    }
+
+    private static int[] createEscapeBitmap() {
+        final int[] bitmap = new int[(Character.MAX_VALUE + 1) >>> 5];
+        final int[] ranges = EscapeRanges.RANGES;
+        for (int i = 0; i < ranges.length; i += 2) {
+            for (int ch = ranges[i]; ch < ranges[i + 1]; ch++) {
+                bitmap[ch >>> 5] |= 1 << (ch & 0x1F);
+            }
         }
+        return bitmap;
     }
 
     /**
      * Ovo je ukradeno iz: com.google.gwt.user.server.rpc.impl.ServerSerializationStreamWriter
+     * <p/>
+     * Only used to generate {@link EscapeRanges}, see EscapeRangesGenerator in the tests.
      */
-    private static boolean needsUnicodeEscape(final char ch) {
+    static boolean computeNeedsUnicodeEscape(final char ch) {
         switch (ch) {
             case ' ':
                 // ASCII space gets caught in SPACE_SEPARATOR below, but does not
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.gwt.serialization;
+
+import com.google.gwt.lang.LongLib;
+import com.google.gwt.user.client.rpc.IncompatibleRemoteServiceException;
+import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.client.rpc.impl.AbstractSerializationStreamReader;
+import com.google.gwt.user.client.rpc.impl.Serializer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads payloads written in strict JSON mode, see {@link JsonSerializationStreamWriter#setStrictJson(boolean)}.
+ * Unlike ClientSerializationStreamReader the payload is parsed as plain JSON and never evaluated.
+ * <p/>
+ * This version parses with a small scanner, the client side version in the translatable folder uses JSON.parse.
+ * <p/>
+ * User: monkeyboy
+ */
+public class JsonStreamReader extends AbstractSerializationStreamReader {
+    private final Serializer serializer;
+    /**
+     * Numbers as Double and strings as String, without the string table.
+     */
+    private final List<Object> results = new ArrayList<Object>();
+    private final List<String> stringTable = new ArrayList<String>();
+    private int index;
+
+    private String encoded;
+    private int position;
+
+    public JsonStreamReader(final Serializer serializer) {
+        this.serializer = serializer;
+    }
+
+    @Override
+    public void prepareToRead(final String encoded) throws SerializationException {
+        parse(encoded);
+        index = results.size();
+        super.prepareToRead(encoded);
+
+        if (getVersion() != SERIALIZATION_STREAM_VERSION) {
+            throw new IncompatibleRemoteServiceException("Expecting version " + SERIALIZATION_STREAM_VERSION
+                    + " from server, got " + getVersion() + ".");
+        }
+        if (!areFlagsValid()) {
+            throw new IncompatibleRemoteServiceException("Got an unknown flag from server: " + getFlags());
+        }
+    }
+
+    @Override
+    public boolean readBoolean() throws SerializationException {
+        return readNumber() != 0;
+    }
+
+    @Override
+    public byte readByte() throws SerializationException {
+        return (byte) readNumber();
+    }
+
+    @Override
+    public char readChar() throws SerializationException {
+        return (char) readNumber();
+    }
+
+    @Override
+    public double readDouble() throws SerializationException {
+        return readNumber();
+    }
+
+    @Override
+    public float readFloat() throws SerializationException {
+        return (float) readNumber();
+    }
+
+    @Override
+    public int readInt() throws SerializationException {
+        return (int) readNumber();
+    }
+
+    @Override
+    public long readLong() throws SerializationException {
+        final Object value = next();
+        if (!(value instanceof String)) {
+            throw new SerializationException("Expecting a long at token " + index + ", got " + value);
+        }
+        return LongLib.longFromBase64((String) value);
+    }
+
+    @Override
+    public short readShort() throws SerializationException {
+        return (short) readNumber();
+    }
+
+    @Override
+    public String readString() throws SerializationException {
+        return getString(readInt());
+    }
+
+    @Override
+    protected Object deserialize(final String typeSignature) throws SerializationException {
+        final int id = reserveDecodedObjectIndex();
+        final Object instance = serializer.instantiate(this, typeSignature);
+        rememberDecodedObject(id, instance);
+        serializer.deserialize(this, instance, typeSignature);
+        return instance;
+    }
+
+    @Override
+    protected String getString(final int index) {
+        // index is 1-based
+        return index > 0 ? stringTable.get(index - 1) : null;
+    }
+
+    /**
+     * @return position of the next token, tokens are read from the end so it counts down
+     */
+    int getIndex() {
+        return index;
+    }
+
+    /**
+     * Moves to a position returned by {@link #getIndex()}. Skipping n tokens moves it down by n.
+     */
+    void setIndex(final int index) {
+        this.index = index;
+    }
+
+    private Object next() throws SerializationException {
+        if (index == 0) {
+            throw new SerializationException("Read past the first token");
+        }
+        return results.get(--index);
+    }
+
+    /**
+     * NaN and the infinities come as strings.
+     */
+    private double readNumber() throws SerializationException {
+        final Object value = next();
+        if (value instanceof Double) {
+            return (Double) value;
+        }
+        try {
+            return Double.parseDouble((String) value);
+        } catch (NumberFormatException e) {
+            throw new SerializationException("Expecting a number at token " + index + ", got " + value, e);
+        }
+    }
+
+    // The scanner accepts the payload shape only: numbers and strings with the string table second to last.
+
+    private void parse(final String encoded) throws SerializationException {
+        this.encoded = encoded;
+        position = 0;
+        results.clear();
+        stringTable.clear();
+        int stringTablePosition = -1;
+        expect('[');
+        if (!skip(']')) {
+            do {
+                skipWhitespace();
+                if (peek() == '[') {
+                    if (stringTablePosition >= 0) {
+                        throw syntaxError("Second string table");
+                    }
+                    stringTablePosition = results.size();
+                    parseStringTable();
+                } else if (peek() == '"') {
+                    results.add(parseString());
+                } else {
+                    results.add(parseNumber());
+                }
+            } while (skip(','));
+            expect(']');
+        }
+        skipWhitespace();
+        if (position < encoded.length()) {
+            throw syntaxError("Unexpected content after the payload");
+        }
+        if (stringTablePosition != results.size() - 2) {
+            throw syntaxError("String table missing");
+        }
+        this.encoded = null;
+    }
+
+    private void parseStringTable() throws SerializationException {
+        expect('[');
+        if (!skip(']')) {
+            do {
+                skipWhitespace();
+                stringTable.add(parseString());
+            } while (skip(','));
+            expect(']');
+        }
+    }
+
+    private String parseString() throws SerializationException {
+        expect('"');
+        final int length = encoded.length();
+        int start = position;
+        StringBuilder sb = null;
+        while (position < length) {
+            final char c = encoded.charAt(position);
+            if (c == '"') {
+                final String value = sb == null
+                        ? encoded.substring(start, position)
+                        : sb.append(encoded, start, position).toString();
+                position++;
+                return value;
+            } else if (c == '\\') {
+                if (sb == null) {
+                    sb = new StringBuilder(position - start + 16);
+                }
+                sb.append(encoded, start, position);
+                sb.append(parseEscape());
+                start = position;
+            } else if (c < ' ') {
+                throw syntaxError("Control character in string");
+            } else {
+                position++;
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private char parseEscape() throws SerializationException {
+        // skip the backslash
+        position++;
+        if (position >= encoded.length()) {
+            throw syntaxError("Unterminated escape");
+        }
+        final char c = encoded.charAt(position++);
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                return c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                if (position + 4 > encoded.length()) {
+                    throw syntaxError("Unterminated escape");
+                }
+                try {
+                    final char value = (char) Integer.parseInt(encoded.substring(position, position + 4), 16);
+                    position += 4;
+                    return value;
+                } catch (NumberFormatException e) {
+                    throw syntaxError("Invalid unicode escape");
+                }
+            default:
+                throw syntaxError("Invalid escape");
+        }
+    }
+
+    private Double parseNumber() throws SerializationException {
+        final int start = position;
+        final int length = encoded.length();
+        while (position < length) {
+            final char c = encoded.charAt(position);
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                position++;
+            } else {
+                break;
+            }
+        }
+        if (start == position) {
+            throw syntaxError("Expecting a value");
+        }
+        try {
+            return Double.valueOf(encoded.substring(start, position));
+        } catch (NumberFormatException e) {
+            throw syntaxError("Invalid number");
+        }
+    }
+
+    private void expect(final char c) throws SerializationException {
+        if (!skip(c)) {
+            throw syntaxError("Expecting '" + c + "'");
+        }
+    }
+
+    /**
+     * Skips whitespace and the given char if it comes next.
+     */
+    private boolean skip(final char c) {
+        skipWhitespace();
+        if (peek() == c) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private char peek() {
+        return position < encoded.length() ? encoded.charAt(position) : 0;
+    }
+
+    private void skipWhitespace() {
+        final int length = encoded.length();
+        while (position < length) {
+            final char c = encoded.charAt(position);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return;
+            }
+            position++;
+        }
+    }
+
+    private SerializationException syntaxError(final String message) {
+        return new SerializationException(message + " at position " + position);
+    }
+}
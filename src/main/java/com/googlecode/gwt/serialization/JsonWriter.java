@@ -16,9 +16,59 @@
 
 package com.googlecode.gwt.serialization;
 
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+import java.io.IOException;
+
 /**
  * User: monkeyboy
  */
 public interface JsonWriter<T> {
     String write(T model);
+
+    /**
+     * Writes the model straight into the given sink instead of returning it as a String.
+     */
+    void writeTo(T model, Appendable out) throws IOException;
+
+    /**
+     * Writes all models into one payload with a shared string table. Objects shared between the models are written
+     * only once. Read it with {@link JsonReader#readAll(String)}.
+     */
+    String writeAll(Iterable<? extends T> models);
+
+    /**
+     * Writes like {@link #write(Object)} in a slice of the scheduler. The model must not change until the callback
+     * is called. Slices only end between models, so the object graph is written in one slice however big it is:
+     * the field serializers are recursive and can't be suspended.
+     */
+    void writeAsync(T model, AsyncCallback<String> callback);
+
+    /**
+     * Writes like {@link #writeAll(Iterable)} in slices of the scheduler, so the browser stays responsive. Models
+     * are written one after another until the time budget of the slice is used up; objects and strings shared
+     * between models are still written once. A single model is never split across slices. The models must not
+     * change until the callback is called.
+     */
+    void writeAllAsync(Iterable<? extends T> models, AsyncCallback<String> callback);
+
+    /**
+     * Walks the model like {@link #write(Object)} but only hashes the tokens, which is much cheaper than writing.
+     * Models that give the same payload give the same fingerprint, so it can be used for change detection or ETags.
+     *
+     * @return 64-bit hash of the payload tokens
+     */
+    long fingerprint(T model);
+
+    /**
+     * Writes only the objects of the current model that differ from the baseline, read it with
+     * {@link JsonReader#applyDelta(Object, String)}. Objects are matched by their position in a breadth first walk,
+     * so the delta is small when values change but the shape of the model stays the same. Objects that refer to a
+     * changed object are written as well. The patch is always strict JSON.
+     *
+     * @param baseline model the reader already has
+     * @param current  the new model
+     * @return the patch
+     */
+    String writeDelta(T baseline, T current);
 }
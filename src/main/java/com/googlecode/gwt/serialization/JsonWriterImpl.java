@@ -16,27 +16,392 @@
 
 package com.googlecode.gwt.serialization;
 
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.core.client.Scheduler.RepeatingCommand;
+import com.google.gwt.user.client.rpc.AsyncCallback;
 import com.google.gwt.user.client.rpc.SerializationException;
 import com.google.gwt.user.client.rpc.impl.Serializer;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * User: monkeyboy
  */
 public class JsonWriterImpl<T> implements JsonWriter<T> {
     private final Serializer serializer;
+    private final WriterPool pool;
+    private final WriterPool fingerprintPool;
+    private final EscapedStringCache escapedStringCache;
+    /**
+     * Size of the last payload, used to presize the buffers for the next one. It's only a hint so it doesn't
+     * matter if concurrent writes overwrite each other.
+     */
+    private int tokenCountHint;
+    private int tokenLengthHint;
+    private int objectCountHint;
+    private boolean treeMode;
+    private boolean canonical;
+    private boolean strictJson;
+    private int maxPayloadLength = Integer.MAX_VALUE;
+    private int sliceBudget = JsonReaderImpl.DEFAULT_SLICE_BUDGET;
+    private Scheduler scheduler;
+    private final Set<Class<?>> immutableTypes = new HashSet<Class<?>>();
+    private final Map<Object, JsonFragment> fragments = new IdentityHashMap<Object, JsonFragment>();
+    private final List<Object> fragmentRoots = new ArrayList<Object>();
 
     public JsonWriterImpl(final Serializer serializer) {
+        this(serializer, null);
+    }
+
+    /**
+     * @param escapedStringCache cache shared by all writes, can be null
+     */
+    public JsonWriterImpl(final Serializer serializer, final EscapedStringCache escapedStringCache) {
         this.serializer = serializer;
+        this.escapedStringCache = escapedStringCache;
+        pool = new WriterPool(serializer, escapedStringCache);
+        fingerprintPool = new WriterPool(serializer, null, true);
+    }
+
+    /**
+     * @return the escaped string cache used by this writer or null if there is none
+     */
+    public EscapedStringCache getEscapedStringCache() {
+        return escapedStringCache;
+    }
+
+    /**
+     * Writes models without back-references, see {@link JsonSerializationStreamWriter#setTreeMode(boolean)}.
+     */
+    public void setTreeMode(final boolean treeMode) {
+        this.treeMode = treeMode;
+    }
+
+    public boolean isTreeMode() {
+        return treeMode;
+    }
+
+    /**
+     * Writes the string table sorted, see {@link JsonSerializationStreamWriter#setCanonical(boolean)}.
+     */
+    public void setCanonical(final boolean canonical) {
+        this.canonical = canonical;
+    }
+
+    public boolean isCanonical() {
+        return canonical;
+    }
+
+    /**
+     * Writes payloads that are valid JSON, see {@link JsonSerializationStreamWriter#setStrictJson(boolean)}. The
+     * reader has to be set to strict JSON as well. Fragments added so far are recorded again in the new mode.
+     */
+    public void setStrictJson(final boolean strictJson) {
+        if (this.strictJson == strictJson) {
+            return;
+        }
+        this.strictJson = strictJson;
+        // in registration order, so fragments nested in later ones are spliced into them again
+        fragments.clear();
+        for (final Object root : fragmentRoots) {
+            fragments.put(root, recordFragment(root));
+        }
+    }
+
+    public boolean isStrictJson() {
+        return strictJson;
+    }
+
+    /**
+     * Equal instances of the class are written once and read back as one instance, see {@link Immutable}.
+     * Immutable types should be added before the first write.
+     */
+    public void addImmutableType(final Class<?> clazz) {
+        immutableTypes.add(clazz);
+    }
+
+    /**
+     * Serializes the subgraph once; from now on it is spliced into payloads instead of being serialized again.
+     * The subgraph must not change afterwards and its objects should not be referenced from outside of it, such
+     * objects would be written once more. Fragments should be added before the first write.
+     *
+     * @param root root of the subgraph
+     * @return the fragment
+     */
+    public JsonFragment addFragment(final Object root) {
+        final JsonFragment fragment = recordFragment(root);
+        if (fragments.put(root, fragment) == null) {
+            fragmentRoots.add(root);
+        }
+        return fragment;
+    }
+
+    private JsonFragment recordFragment(final Object root) {
+        final JsonSerializationStreamWriter writer = acquire();
+        try {
+            return writer.recordFragment(root);
+        } catch (SerializationException e) {
+            throw new RuntimeException(e);
+        } finally {
+            pool.release(writer);
+        }
+    }
+
+    /**
+     * Limits the length of every payload written by this writer. A longer write fails early with a
+     * {@link PayloadTooLargeException}.
+     */
+    public void setMaxPayloadLength(final int maxPayloadLength) {
+        this.maxPayloadLength = maxPayloadLength;
+    }
+
+    public int getMaxPayloadLength() {
+        return maxPayloadLength;
+    }
+
+    /**
+     * @param sliceBudget milliseconds an asynchronous write may take before it yields to the browser
+     */
+    public void setSliceBudget(final int sliceBudget) {
+        this.sliceBudget = sliceBudget;
+    }
+
+    public int getSliceBudget() {
+        return sliceBudget;
+    }
+
+    void setScheduler(final Scheduler scheduler) {
+        this.scheduler = scheduler;
     }
 
     @Override
     public String write(final T model) {
+        final JsonSerializationStreamWriter writer = acquire();
         try {
-            final JsonSerializationStreamWriter writer = new JsonSerializationStreamWriter(serializer);
-            writer.writeObject(model);
+            serialize(writer, model);
             return writer.toString();
+        } finally {
+            pool.release(writer);
+        }
+    }
+
+    @Override
+    public void writeTo(final T model, final Appendable out) throws IOException {
+        final JsonSerializationStreamWriter writer = acquire();
+        try {
+            serialize(writer, model);
+            writer.writeTo(out);
+        } finally {
+            pool.release(writer);
+        }
+    }
+
+    @Override
+    public String writeAll(final Iterable<? extends T> models) {
+        final JsonSerializationStreamWriter writer = acquire();
+        try {
+            serializeAll(writer, models);
+            return writer.toString();
+        } finally {
+            pool.release(writer);
+        }
+    }
+
+    @Override
+    public void writeAsync(final T model, final AsyncCallback<String> callback) {
+        schedule(new AsyncWrite(Collections.singletonList(model), false, callback));
+    }
+
+    @Override
+    public void writeAllAsync(final Iterable<? extends T> models, final AsyncCallback<String> callback) {
+        schedule(new AsyncWrite(toCollection(models), true, callback));
+    }
+
+    @Override
+    public long fingerprint(final T model) {
+        final FingerprintStreamWriter writer = (FingerprintStreamWriter) fingerprintPool.acquire();
+        try {
+            configure(writer);
+            // fragments are spliced as plain tokens, they have to be walked to be hashed
+            writer.setFragments(null);
+            writer.writeObject(model);
+            return writer.getFingerprint();
+        } catch (SerializationException e) {
+            throw new RuntimeException(e);
+        } finally {
+            fingerprintPool.release(writer);
+        }
+    }
+
+    @Override
+    public String writeDelta(final T baseline, final T current) {
+        try {
+            final DeltaStreamWriter slots = new DeltaStreamWriter(serializer, new TypeSignatureCache());
+            slots.walk(baseline);
+            slots.walk(current);
+
+            final JsonSerializationStreamWriter writer = acquire();
+            try {
+                // the slot tokens are copied as they are, they are strict JSON
+                writer.setStrictJson(true);
+                slots.writePatch(writer);
+                return writer.toString();
+            } finally {
+                pool.release(writer);
+            }
+        } catch (SerializationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private JsonSerializationStreamWriter acquire() {
+        final JsonSerializationStreamWriter writer = pool.acquire();
+        configure(writer);
+        return writer;
+    }
+
+    private void configure(final JsonSerializationStreamWriter writer) {
+        writer.setTreeMode(treeMode);
+        writer.setCanonical(canonical);
+        writer.setStrictJson(strictJson);
+        writer.setMaxPayloadLength(maxPayloadLength);
+        writer.setImmutableTypes(immutableTypes);
+        writer.setFragments(fragments);
+    }
+
+    private void serialize(final JsonSerializationStreamWriter writer, final T model) {
+        writer.presize(tokenCountHint, tokenLengthHint, objectCountHint);
+        try {
+            writer.writeObject(model);
+        } catch (SerializationException e) {
+            throw new RuntimeException(e);
+        }
+        updateSizeHint(writer);
+    }
+
+    /**
+     * The number of models is written first, followed by the models.
+     */
+    private void serializeAll(final JsonSerializationStreamWriter writer, final Iterable<? extends T> models) {
+        final Collection<? extends T> collection = toCollection(models);
+        writer.presize(tokenCountHint, tokenLengthHint, objectCountHint);
+        writer.writeInt(collection.size());
+        try {
+            for (T model : collection) {
+                writer.writeObject(model);
+            }
         } catch (SerializationException e) {
             throw new RuntimeException(e);
         }
+        updateSizeHint(writer);
+    }
+
+    private Collection<? extends T> toCollection(final Iterable<? extends T> models) {
+        if (models instanceof Collection<?>) {
+            return (Collection<? extends T>) models;
+        }
+        final ArrayList<T> list = new ArrayList<T>();
+        for (T model : models) {
+            list.add(model);
+        }
+        return list;
+    }
+
+    private void schedule(final RepeatingCommand command) {
+        if (scheduler == null) {
+            scheduler = Scheduler.get();
+        }
+        scheduler.scheduleIncremental(command);
+    }
+
+    /**
+     * The hints follow the last payload and are not capped, so a large payload written again is presized in full.
+     * Only the buffers kept by {@link JsonSerializationStreamWriter#reset()} are capped, and the next small payload
+     * brings the hints back down.
+     */
+    private void updateSizeHint(final JsonSerializationStreamWriter writer) {
+        tokenCountHint = sizeHint(writer.getTokenCount());
+        tokenLengthHint = sizeHint(writer.getTokenLength());
+        objectCountHint = sizeHint(writer.getObjectCount());
+    }
+
+    /**
+     * @return the size with a bit of head room for payloads that grow
+     */
+    private static int sizeHint(final int size) {
+        return size + (size >> 3);
+    }
+
+    /**
+     * Asynchronous write. The writer stays out of the pool until the payload is done, so the back-references and
+     * the string table carry over from slice to slice and writes in between the slices get a writer of their own.
+     * A slice ends between two models, a single model is always written at once.
+     */
+    private final class AsyncWrite implements RepeatingCommand {
+        private final Iterator<? extends T> models;
+        private final int size;
+        /**
+         * True for writeAll payloads, which start with the number of models.
+         */
+        private final boolean all;
+        private final AsyncCallback<String> callback;
+        private JsonSerializationStreamWriter writer;
+
+        AsyncWrite(final Collection<? extends T> models, final boolean all, final AsyncCallback<String> callback) {
+            this.models = models.iterator();
+            this.size = models.size();
+            this.all = all;
+            this.callback = callback;
+        }
+
+        @Override
+        public boolean execute() {
+            final long start = System.currentTimeMillis();
+            final String payload;
+            try {
+                if (writer == null) {
+                    writer = acquire();
+                    writer.presize(tokenCountHint, tokenLengthHint, objectCountHint);
+                    if (all) {
+                        writer.writeInt(size);
+                    }
+                }
+                while (models.hasNext()) {
+                    writer.writeObject(models.next());
+                    if (models.hasNext() && System.currentTimeMillis() - start >= sliceBudget) {
+                        return true;
+                    }
+                }
+                updateSizeHint(writer);
+                payload = writer.toString();
+            } catch (SerializationException e) {
+                release();
+                callback.onFailure(e);
+                return false;
+            } catch (RuntimeException e) {
+                release();
+                callback.onFailure(e);
+                return false;
+            }
+            release();
+            callback.onSuccess(payload);
+            return false;
+        }
+
+        private void release() {
+            if (writer != null) {
+                pool.release(writer);
+                writer = null;
+            }
+        }
     }
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.gwt.serialization;
+
+/**
+ * Thrown when a payload gets longer than the limit set with {@link JsonWriterImpl#setMaxPayloadLength(int)}.
+ * The write is aborted as soon as the limit is crossed, so the rest of the model is never serialized.
+ * <p/>
+ * User: monkeyboy
+ */
+public class PayloadTooLargeException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final int maxPayloadLength;
+
+    public PayloadTooLargeException(final int maxPayloadLength) {
+        super("Payload is longer than " + maxPayloadLength + " chars");
+        this.maxPayloadLength = maxPayloadLength;
+    }
+
+    public int getMaxPayloadLength() {
+        return maxPayloadLength;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.googlecode.gwt.serialization;
+
+/**
+ * Class -&gt; type signature cache shared by all writers of a {@link JsonWriterImpl}. It is filled lazily.
+ * <p/>
+ * Identity keyed open addressing table with linear probing, keys and values are interleaved in one array.
+ * The table is copied on every put and published through a volatile field. There are only a few classes in a model
+ * so this is cheap, and lookups from many threads need no locking.
+ * <p/>
+ * The client side version is in the translatable folder.
+ * <p/>
+ * User: monkeyboy
+ */
+class TypeSignatureCache {
+    private static final int INITIAL_CAPACITY = 32;
+
+    private volatile Object[] table = new Object[INITIAL_CAPACITY * 2];
+
+    /**
+     * @return the signature or null if the class is not in the cache yet
+     */
+    String get(final Class<?> clazz) {
+        final Object[] table = this.table;
+        final int mask = table.length - 2;
+        for (int i = hash(clazz, mask); ; i = (i + 2) & mask) {
+            final Object key = table[i];
+            if (key == clazz) {
+                return (String) table[i + 1];
+            }
+            if (key == null) {
+                return null;
+            }
+        }
+    }
+
+    synchronized void put(final Class<?> clazz, final String signature) {
+        if (get(clazz) != null) {
+            return;
+        }
+        int size = 0;
+        for (int i = 0; i < table.length; i += 2) {
+            if (table[i] != null) {
+                size++;
+            }
+        }
+        // keep the table at most half full
+        final Object[] newTable = new Object[(size + 1) * 4 > table.length ? table.length * 2 : table.length];
+        for (int i = 0; i < table.length; i += 2) {
+            if (table[i] != null) {
+                insert(newTable, (Class<?>) table[i], (String) table[i + 1]);
+            }
+        }
+        insert(newTable, clazz, signature);
+        table = newTable;
+    }
+
+    private static void insert(final Object[] table, final Class<?> clazz, final String signature) {
+        final int mask = table.length - 2;
+        int i = hash(clazz, mask);
+        while (table[i] != null) {
+            i = (i + 2) & mask;
+        }
+        table[i] = clazz;
+        table[i + 1] = signature;
+    }
+
+    /**
+     * @return even index of the key slot
+     */
+    private static int hash(final Class<?> clazz, final int mask) {
+        final int h = System.identityHashCode(clazz);
+        return ((h << 1) ^ (h >>> 15)) & mask;
+    }
+}
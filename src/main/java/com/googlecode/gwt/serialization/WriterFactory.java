@@ -0,0 +1,34 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.gwt.serialization;
+
+import com.google.gwt.user.client.rpc.impl.Serializer;
+
+/**
+ * Creates the writers of a {@link WriterPool}. On the client it is replaced by {@link JsArrayWriterFactory}, see
+ * the replace-with rule in Serialization.gwt.xml.
+ * <p/>
+ * User: monkeyboy
+ */
+class WriterFactory {
+    JsonSerializationStreamWriter create(
+            final Serializer serializer,
+            final TypeSignatureCache typeSignatureCache,
+            final EscapedStringCache escapedStringCache) {
+        return new JsonSerializationStreamWriter(serializer, typeSignatureCache, escapedStringCache);
+    }
+}
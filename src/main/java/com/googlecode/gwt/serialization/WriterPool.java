@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.googlecode.gwt.serialization;
+
+import com.google.gwt.user.client.rpc.impl.Serializer;
+
+/**
+ * Keeps one released {@link JsonSerializationStreamWriter} per thread so the next write on that thread can reuse
+ * its buffers. Writers are taken out of the pool while in use, so nested writes simply get a new writer.
+ * <p/>
+ * The client side version (without ThreadLocal) is in the translatable folder.
+ * <p/>
+ * User: monkeyboy
+ */
+class WriterPool {
+    private final Serializer serializer;
+    private final TypeSignatureCache typeSignatureCache = new TypeSignatureCache();
+    private final EscapedStringCache escapedStringCache;
+    private final boolean fingerprint;
+    private final ThreadLocal<JsonSerializationStreamWriter> released = new ThreadLocal<JsonSerializationStreamWriter>();
+
+    WriterPool(final Serializer serializer, final EscapedStringCache escapedStringCache) {
+        this(serializer, escapedStringCache, false);
+    }
+
+    /**
+     * @param fingerprint true for a pool of {@link FingerprintStreamWriter}s
+     */
+    WriterPool(final Serializer serializer, final EscapedStringCache escapedStringCache, final boolean fingerprint) {
+        this.serializer = serializer;
+        this.escapedStringCache = escapedStringCache;
+        this.fingerprint = fingerprint;
+    }
+
+    JsonSerializationStreamWriter acquire() {
+        final JsonSerializationStreamWriter writer = released.get();
+        if (writer == null) {
+            return fingerprint
+                    ? new FingerprintStreamWriter(serializer, typeSignatureCache)
+                    : new JsonSerializationStreamWriter(serializer, typeSignatureCache, escapedStringCache);
+        }
+        released.remove();
+        return writer;
+    }
+
+    void release(final JsonSerializationStreamWriter writer) {
+        writer.reset();
+        released.set(writer);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.gwt.serialization.server;
+
+import com.googlecode.gwt.serialization.JsonWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Server side helper that writes a payload as deflate (zlib) compressed UTF-8, as used by the HTTP "deflate"
+ * content encoding. The payload is encoded with {@link Utf8Output} and fed to the deflater in fixed-size chunks as
+ * the writer produces it, so neither an intermediate String nor the whole uncompressed payload is held in memory.
+ * <pre>
+ * response.setHeader("Content-Encoding", "deflate");
+ * JsonDeflater.deflate(factory.getWriter(), model, response.getOutputStream(), Deflater.DEFAULT_COMPRESSION);
+ * </pre>
+ * Canonical writers (see JsonWriterImpl.setCanonical) compress better, their string table is sorted.
+ * <p/>
+ * User: monkeyboy
+ */
+public final class JsonDeflater {
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private JsonDeflater() {
+    }
+
+    /**
+     * @param level compression level, 0-9 or {@link Deflater#DEFAULT_COMPRESSION}
+     * @return the compressed payload
+     */
+    public static <T> byte[] deflate(final JsonWriter<T> writer, final T model, final int level) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            deflate(writer, model, out, level);
+        } catch (IOException e) {
+            // ByteArrayOutputStream never throws IOException.
+            throw new RuntimeException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the compressed payload to the stream, which is not closed.
+     *
+     * @param level compression level, 0-9 or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public static <T> void deflate(final JsonWriter<T> writer, final T model, final OutputStream out, final int level)
+            throws IOException {
+        final Deflater deflater = new Deflater(level);
+        try {
+            final DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+            final ChunkedOutput chunked = new ChunkedOutput(deflaterOut);
+            writer.writeTo(model, chunked);
+            chunked.finish();
+            deflaterOut.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Encodes appended chars into a bounded buffer that is written out whenever it holds at least BUFFER_SIZE bytes.
+     * Long appends are split into BUFFER_SIZE chars, at most three bytes each, so the buffer never grows.
+     */
+    private static final class ChunkedOutput implements Appendable {
+        private final Utf8Output utf8 = new Utf8Output(4 * BUFFER_SIZE);
+        private final OutputStream out;
+
+        private ChunkedOutput(final OutputStream out) {
+            this.out = out;
+        }
+
+        public Appendable append(final CharSequence csq) throws IOException {
+            final CharSequence s = csq == null ? "null" : csq;
+            return append(s, 0, s.length());
+        }
+
+        public Appendable append(final CharSequence csq, final int start, final int end) throws IOException {
+            if (csq == null) {
+                return append("null", start, end);
+            }
+            for (int i = start; i < end; i += BUFFER_SIZE) {
+                utf8.append(csq, i, Math.min(end, i + BUFFER_SIZE));
+                drain(false);
+            }
+            return this;
+        }
+
+        public Appendable append(final char c) throws IOException {
+            utf8.append(c);
+            drain(false);
+            return this;
+        }
+
+        private void finish() throws IOException {
+            utf8.flush();
+            drain(true);
+        }
+
+        private void drain(final boolean force) throws IOException {
+            if (force || utf8.size() >= BUFFER_SIZE) {
+                utf8.writeTo(out);
+                utf8.reset();
+            }
+        }
+    }
+}
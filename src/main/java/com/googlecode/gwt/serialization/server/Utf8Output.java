@@ -0,0 +1,222 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.googlecode.gwt.serialization.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Server side sink that encodes the payload to UTF-8 while it is written, so there is no intermediate String.
+ * The escaped payload is almost all ASCII, which takes a fast path.
+ * <pre>
+ * final Utf8Output out = new Utf8Output();
+ * factory.getWriter().writeTo(model, out);
+ * response.setContentLength(out.size());
+ * out.writeTo(response.getOutputStream());
+ * </pre>
+ * Output goes into a growable byte array, or into a caller provided {@link ByteBuffer}, in which case
+ * {@link #flush()} has to be called at the end. A full ByteBuffer throws {@link BufferOverflowException}.
+ * <p/>
+ * User: monkeyboy
+ */
+public class Utf8Output implements Appendable {
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    private final ByteBuffer target;
+    private byte[] bytes;
+    private int offset;
+    private int position;
+    private int limit;
+    private char highSurrogate;
+
+    public Utf8Output() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public Utf8Output(final int initialCapacity) {
+        target = null;
+        bytes = new byte[initialCapacity];
+        limit = initialCapacity;
+    }
+
+    /**
+     * Writes into the given buffer, starting at its position. Call {@link #flush()} when done.
+     */
+    public Utf8Output(final ByteBuffer target) {
+        this.target = target;
+        if (target.hasArray()) {
+            // write straight into the backing array
+            bytes = target.array();
+            offset = target.arrayOffset();
+            position = offset + target.position();
+            limit = offset + target.limit();
+        } else {
+            bytes = new byte[CHUNK_SIZE];
+            limit = CHUNK_SIZE;
+        }
+    }
+
+    @Override
+    public Utf8Output append(final CharSequence csq) {
+        final CharSequence s = csq == null ? "null" : csq;
+        return append(s, 0, s.length());
+    }
+
+    @Override
+    public Utf8Output append(final CharSequence csq, final int start, final int end) {
+        if (csq == null) {
+            return append("null", start, end);
+        }
+        int i = start;
+        while (i < end) {
+            // ASCII fast path, as many chars as fit
+            final int n = Math.min(end - i, limit - position);
+            final int asciiEnd = i + n;
+            char c;
+            while (i < asciiEnd && (c = csq.charAt(i)) < 0x80 && highSurrogate == 0) {
+                bytes[position++] = (byte) c;
+                i++;
+            }
+            if (i < end) {
+                if (position == limit) {
+                    overflow(1);
+                } else {
+                    append(csq.charAt(i++));
+                }
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public Utf8Output append(final char c) {
+        if (highSurrogate != 0) {
+            final char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                final int codePoint = Character.toCodePoint(high, c);
+                ensure(4);
+                bytes[position++] = (byte) (0xF0 | (codePoint >> 18));
+                bytes[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                bytes[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                bytes[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                return this;
+            }
+            // unpaired surrogate, same replacement as String.getBytes
+            append('?');
+        }
+        if (c < 0x80) {
+            ensure(1);
+            bytes[position++] = (byte) c;
+        } else if (c < 0x800) {
+            ensure(2);
+            bytes[position++] = (byte) (0xC0 | (c >> 6));
+            bytes[position++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            append('?');
+        } else {
+            ensure(3);
+            bytes[position++] = (byte) (0xE0 | (c >> 12));
+            bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            bytes[position++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return this;
+    }
+
+    /**
+     * Writes out a pending unpaired surrogate and, when writing into a ByteBuffer, updates its position.
+     */
+    public void flush() {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            append('?');
+        }
+        if (target != null) {
+            if (target.hasArray()) {
+                target.position(position - offset);
+            } else {
+                target.put(bytes, 0, position);
+                position = 0;
+            }
+        }
+    }
+
+    /**
+     * @return number of bytes in the growable array
+     */
+    public int size() {
+        return position;
+    }
+
+    /**
+     * @return the growable array itself, only the first {@link #size()} bytes are used
+     */
+    public byte[] getBytes() {
+        checkGrowable();
+        return bytes;
+    }
+
+    public byte[] toByteArray() {
+        checkGrowable();
+        final byte[] result = new byte[position];
+        System.arraycopy(bytes, 0, result, 0, position);
+        return result;
+    }
+
+    public void writeTo(final OutputStream out) throws IOException {
+        checkGrowable();
+        out.write(bytes, 0, position);
+    }
+
+    /**
+     * Empties the growable array for reuse, a pending high surrogate is kept. Lets callers drain the output in chunks.
+     */
+    public void reset() {
+        checkGrowable();
+        position = 0;
+    }
+
+    private void checkGrowable() {
+        if (target != null) {
+            throw new IllegalStateException("Output is written into a ByteBuffer");
+        }
+    }
+
+    private void ensure(final int length) {
+        if (position + length > limit) {
+            overflow(length);
+        }
+    }
+
+    private void overflow(final int length) {
+        if (target == null) {
+            final byte[] newBytes = new byte[Math.max(bytes.length * 2, position + length)];
+            System.arraycopy(bytes, 0, newBytes, 0, position);
+            bytes = newBytes;
+            limit = newBytes.length;
+        } else if (target.hasArray()) {
+            throw new BufferOverflowException();
+        } else {
+            target.put(bytes, 0, position);
+            position = 0;
+        }
+    }
+}
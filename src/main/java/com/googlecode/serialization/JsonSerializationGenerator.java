@@ -16,6 +16,8 @@
 
 package com.googlecode.serialization;
 
+import com.google.gwt.core.ext.BadPropertyValueException;
+import com.google.gwt.core.ext.ConfigurationProperty;
 import com.google.gwt.core.ext.Generator;
 import com.google.gwt.core.ext.GeneratorContext;
 import com.google.gwt.core.ext.PropertyOracle;
@@ -23,6 +25,7 @@ import com.google.gwt.core.ext.TreeLogger;
 import com.google.gwt.core.ext.UnableToCompleteException;
 import com.google.gwt.core.ext.typeinfo.JClassType;
 import com.google.gwt.core.ext.typeinfo.JParameterizedType;
+import com.google.gwt.core.ext.typeinfo.JType;
 import com.google.gwt.core.ext.typeinfo.NotFoundException;
 import com.google.gwt.core.ext.typeinfo.TypeOracle;
 import com.google.gwt.user.client.rpc.IncompatibleRemoteServiceException;
@@ -30,10 +33,16 @@ import com.google.gwt.user.rebind.rpc.BlacklistFilter;
 import com.google.gwt.user.rebind.rpc.SerializableTypeOracle;
 import com.google.gwt.user.rebind.rpc.SerializableTypeOracleBuilder;
 import com.google.gwt.user.rebind.rpc.TypeSerializerCreator;
+import com.googlecode.gwt.serialization.EscapedStringCache;
 import com.googlecode.gwt.serialization.ExtendWith;
+import com.googlecode.gwt.serialization.Immutable;
+import com.googlecode.gwt.serialization.JsonReaderImpl;
 import com.googlecode.gwt.serialization.JsonSerializationFactory;
 
 import java.io.PrintWriter;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * User: monkeyboy
@@ -41,6 +50,13 @@ import java.io.PrintWriter;
 public class JsonSerializationGenerator extends Generator {
     private static final String INTERFACE_NAME = JsonSerializationFactory.class.getCanonicalName();
     private static final String EXTEND_INTERFACE_NAME = ExtendWith.class.getCanonicalName();
+    private static final String ESCAPED_STRING_CACHE_SIZE_PROPERTY = "json.serialization.escapedStringCacheSize";
+    private static final String TREE_MODE_PROPERTY = "json.serialization.treeMode";
+    private static final String CANONICAL_PROPERTY = "json.serialization.canonical";
+    private static final String STRICT_JSON_PROPERTY = "json.serialization.strictJson";
+    private static final String MAX_PAYLOAD_LENGTH_PROPERTY = "json.serialization.maxPayloadLength";
+    private static final String SLICE_BUDGET_PROPERTY = "json.serialization.sliceBudget";
+    private static final String IMMUTABLE_TYPES_PROPERTY = "json.serialization.immutableTypes";
     private JClassType factoryType;
     private JClassType type;
     private JClassType whiteListType;
@@ -113,12 +129,22 @@ public class JsonSerializationGenerator extends Generator {
                         packageName + "." + jsonTypeSerializer, jsonTypeSerializer);
         tsc.realize(logger);
 
+        final int escapedStringCacheSize = getIntProperty(logger, propertyOracle, ESCAPED_STRING_CACHE_SIZE_PROPERTY);
+        final boolean treeMode = getBooleanProperty(logger, propertyOracle, TREE_MODE_PROPERTY);
+        final boolean canonical = getBooleanProperty(logger, propertyOracle, CANONICAL_PROPERTY);
+        final boolean strictJson = getBooleanProperty(logger, propertyOracle, STRICT_JSON_PROPERTY);
+        final int maxPayloadLength = getIntProperty(logger, propertyOracle, MAX_PAYLOAD_LENGTH_PROPERTY);
+        final int sliceBudget = getIntProperty(logger, propertyOracle, SLICE_BUDGET_PROPERTY);
+        final Set<String> immutableTypes = getImmutableTypes(logger, typeOracle, propertyOracle,
+                typesSentFromBrowser, typesSentToBrowser);
+
         final String jsonFactoryName = factoryType.getName().replace('.', '_') + "_AutogeneratedImpl";
         final PrintWriter printWriter = context.tryCreate(logger, packageName, jsonFactoryName);
 
         if (printWriter != null) {
             printWriter.append("package ").append(packageName).append(";\n");
             printWriter.append("import com.google.gwt.user.client.rpc.impl.Serializer;\n");
+            printWriter.append("import ").append(EscapedStringCache.class.getCanonicalName()).append(";\n");
             printWriter.append("import com.googlecode.gwt.serialization.JsonReader;\n");
             printWriter.append("import com.googlecode.gwt.serialization.JsonReaderImpl;\n");
             printWriter.append("import com.googlecode.gwt.serialization.JsonSerializationFactory;\n");
@@ -135,7 +161,37 @@ public class JsonSerializationGenerator extends Generator {
             printWriter.append("public class ").append(jsonFactoryName).append(" implements ").append(factoryType.getQualifiedSourceName()).append(" {\n");
             printWriter.append("  private final Serializer serializer = new ").append(jsonTypeSerializer).append("();\n");
             printWriter.append("  private final JsonReaderImpl<").append(typeNameParam).append("> reader = new JsonReaderImpl<").append(typeNameParam).append(">(serializer);\n");
-            printWriter.append("  private final JsonWriterImpl<").append(typeNameParam).append("> writer = new JsonWriterImpl<").append(typeNameParam).append(">(serializer);\n\n");
+            printWriter.append("  private final JsonWriterImpl<").append(typeNameParam).append("> writer = new JsonWriterImpl<").append(typeNameParam).append(">(serializer");
+            if (escapedStringCacheSize > 0) {
+                printWriter.append(", new EscapedStringCache(").append(String.valueOf(escapedStringCacheSize)).append(")");
+            }
+            printWriter.append(");\n\n");
+
+            if (treeMode || canonical || strictJson || maxPayloadLength > 0
+                    || sliceBudget != JsonReaderImpl.DEFAULT_SLICE_BUDGET || !immutableTypes.isEmpty()) {
+                printWriter.append("  public ").append(jsonFactoryName).append("() {\n");
+                if (treeMode) {
+                    printWriter.append("    writer.setTreeMode(true);\n");
+                }
+                if (canonical) {
+                    printWriter.append("    writer.setCanonical(true);\n");
+                }
+                if (strictJson) {
+                    printWriter.append("    writer.setStrictJson(true);\n");
+                    printWriter.append("    reader.setStrictJson(true);\n");
+                }
+                if (maxPayloadLength > 0) {
+                    printWriter.append("    writer.setMaxPayloadLength(").append(String.valueOf(maxPayloadLength)).append(");\n");
+                }
+                if (sliceBudget != JsonReaderImpl.DEFAULT_SLICE_BUDGET) {
+                    printWriter.append("    reader.setSliceBudget(").append(String.valueOf(sliceBudget)).append(");\n");
+                    printWriter.append("    writer.setSliceBudget(").append(String.valueOf(sliceBudget)).append(");\n");
+                }
+                for (String immutableType : immutableTypes) {
+                    printWriter.append("    writer.addImmutableType(").append(immutableType).append(".class);\n");
+                }
+                printWriter.append("  }\n\n");
+            }
 
             printWriter.append("  @Override\n");
             printWriter.append("  public JsonReader<").append(typeNameParam).append("> getReader() {\n");
@@ -153,6 +209,78 @@ public class JsonSerializationGenerator extends Generator {
         return packageName + "." + jsonFactoryName;
     }
 
+    /**
+     * @return source names of the serializable classes annotated with {@link Immutable} and of the classes listed
+     *         in the immutable types property
+     */
+    private static Set<String> getImmutableTypes(
+            final TreeLogger logger,
+            final TypeOracle typeOracle,
+            final PropertyOracle propertyOracle,
+            final SerializableTypeOracle... serializableTypeOracles) throws UnableToCompleteException {
+        final Set<String> immutableTypes = new TreeSet<String>();
+        for (SerializableTypeOracle serializableTypeOracle : serializableTypeOracles) {
+            for (JType serializableType : serializableTypeOracle.getSerializableTypes()) {
+                final JClassType classType = serializableType.isClass();
+                if (classType != null && classType.isAnnotationPresent(Immutable.class)) {
+                    immutableTypes.add(classType.getErasedType().getQualifiedSourceName());
+                }
+            }
+        }
+        try {
+            final ConfigurationProperty prop = propertyOracle.getConfigurationProperty(IMMUTABLE_TYPES_PROPERTY);
+            for (String value : prop.getValues()) {
+                if (value == null || value.trim().length() == 0) {
+                    continue;
+                }
+                final JClassType classType = typeOracle.findType(value.trim().replace('$', '.'));
+                if (classType == null) {
+                    logger.log(TreeLogger.Type.ERROR, "Unable to find immutable type " + value);
+                    throw new UnableToCompleteException();
+                }
+                immutableTypes.add(classType.getErasedType().getQualifiedSourceName());
+            }
+        } catch (BadPropertyValueException e) {
+            logger.log(TreeLogger.Type.ERROR, "Could not find property " + IMMUTABLE_TYPES_PROPERTY, e);
+            throw new UnableToCompleteException();
+        }
+        return immutableTypes;
+    }
+
+    private static boolean getBooleanProperty(
+            final TreeLogger logger,
+            final PropertyOracle propertyOracle,
+            final String name) throws UnableToCompleteException {
+        try {
+            final ConfigurationProperty prop = propertyOracle.getConfigurationProperty(name);
+            final List<String> values = prop.getValues();
+            return !values.isEmpty() && values.get(0) != null && Boolean.parseBoolean(values.get(0).trim());
+        } catch (BadPropertyValueException e) {
+            logger.log(TreeLogger.Type.ERROR, "Could not find property " + name, e);
+            throw new UnableToCompleteException();
+        }
+    }
+
+    private static int getIntProperty(
+            final TreeLogger logger,
+            final PropertyOracle propertyOracle,
+            final String name) throws UnableToCompleteException {
+        try {
+            final ConfigurationProperty prop = propertyOracle.getConfigurationProperty(name);
+            final List<String> values = prop.getValues();
+            if (values.isEmpty() || values.get(0) == null) {
+                return 0;
+            }
+            return Integer.parseInt(values.get(0).trim());
+        } catch (BadPropertyValueException e) {
+            logger.log(TreeLogger.Type.ERROR, "Could not find property " + name, e);
+            throw new UnableToCompleteException();
+        } catch (NumberFormatException e) {
+            logger.log(TreeLogger.Type.ERROR, "Property " + name + " must be a number", e);
+            throw new UnableToCompleteException();
+        }
+    }
+
     private void validateTypes(
             final TreeLogger logger,
             final TypeOracle typeOracle,
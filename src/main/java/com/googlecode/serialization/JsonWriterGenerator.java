@@ -79,22 +79,15 @@ public class JsonWriterGenerator extends Generator {
 
         if (jwWriter != null) {
             jwWriter.append("package ").append(packageName).append(";\n");
-            jwWriter.append("import com.google.gwt.user.client.rpc.SerializationException;\n");
-            jwWriter.append("import com.googlecode.gwt.serialization.JsonSerializationStreamWriter;\n");
-            jwWriter.append("import com.googlecode.gwt.serialization.JsonWriter;\n");
+            jwWriter.append("import com.googlecode.gwt.serialization.JsonWriterImpl;\n");
             jwWriter.append("import ").append(type.getQualifiedSourceName()).append(";\n");
             jwWriter.append("import ").append(type.getQualifiedSourceName()).append("_JsonTypeSerializer;\n\n");
 
-            jwWriter.append("public class ").append(jsonWriterName).append(" implements ").append(rwType.getQualifiedSourceName()).append(" {\n");
-            jwWriter.append("  @Override\n");
-            jwWriter.append("  public String write(final ").append(type.getName()).append(" model) {\n");
-            jwWriter.append("    final JsonSerializationStreamWriter writer = new JsonSerializationStreamWriter(new ").append(type.getName()).append("_JsonTypeSerializer());\n");
-            jwWriter.append("    try {\n");
-            jwWriter.append("      writer.writeObject(model);\n");
-            jwWriter.append("    } catch (SerializationException e) {\n");
-            jwWriter.append("      throw new RuntimeException(e);\n");
-            jwWriter.append("    }\n");
-            jwWriter.append("    return writer.toString();\n");
+            // All JsonWriter methods are inherited from JsonWriterImpl.
+            jwWriter.append("public class ").append(jsonWriterName).append(" extends JsonWriterImpl<").append(type.getName()).append(">");
+            jwWriter.append(" implements ").append(rwType.getQualifiedSourceName()).append(" {\n");
+            jwWriter.append("  public ").append(jsonWriterName).append("() {\n");
+            jwWriter.append("    super(new ").append(type.getName()).append("_JsonTypeSerializer());\n");
             jwWriter.append("  }\n");
             jwWriter.append("}\n");
 
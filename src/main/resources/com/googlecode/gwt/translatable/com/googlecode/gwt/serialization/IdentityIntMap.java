@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.gwt.serialization;
+
+import com.google.gwt.core.client.JavaScriptObject;
+
+/**
+ * Client side version of the IdentityIntMap. The index is stored in an expando property of the object whose name is
+ * unique to the map, so maps of different writers never see each other's indexes. Stamped objects are remembered
+ * and their expandos deleted on clear, nothing is left on the model once the writer is released.
+ * Strings can't have expandos, they are keyed by value in a JavaScript object like in the emulated IdentityHashMap.
+ * <p/>
+ * User: monkeyboy
+ */
+class IdentityIntMap {
+    private static int nextId;
+
+    private final String property = "$json" + ++nextId;
+    private JavaScriptObject strings = JavaScriptObject.createObject();
+    private JavaScriptObject stamped = JavaScriptObject.createArray();
+    private int size;
+
+    int get(final Object key) {
+        return get(key, property, strings);
+    }
+
+    void put(final Object key, final int value) {
+        put(key, value, property, strings, stamped);
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void ensureCapacity(final int expectedSize) {
+        // nothing to reserve, the indexes live in the objects
+    }
+
+    void clear() {
+        if (size > 0) {
+            unstamp(property, stamped);
+            strings = JavaScriptObject.createObject();
+            stamped = JavaScriptObject.createArray();
+            size = 0;
+        }
+    }
+
+    private static native int get(Object key, String property, JavaScriptObject strings) /*-{
+        if (typeof key == 'string') {
+            var index = strings[':' + key];
+            return index == null ? -1 : index;
+        }
+        var index = key[property];
+        return index == null ? -1 : index;
+    }-*/;
+
+    private static native void put(Object key, int value, String property, JavaScriptObject strings,
+                                   JavaScriptObject stamped) /*-{
+        if (typeof key == 'string') {
+            strings[':' + key] = value;
+        } else {
+            key[property] = value;
+            stamped.push(key);
+        }
+    }-*/;
+
+    private static native void unstamp(String property, JavaScriptObject stamped) /*-{
+        for (var i = 0, n = stamped.length; i < n; i++) {
+            delete stamped[i][property];
+        }
+    }-*/;
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.gwt.serialization;
+
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.JsonUtils;
+import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.client.rpc.impl.Serializer;
+
+/**
+ * Client side version of the JsonStreamReader. The payload is parsed with JSON.parse, which is faster than the eval
+ * of ClientSerializationStreamReader and allowed by strict content security policies. Browsers without JSON.parse
+ * fall back to the checked eval of JsonUtils. The parsed array is read by {@link JsArrayStreamReader}.
+ * <p/>
+ * User: monkeyboy
+ */
+public class JsonStreamReader extends JsArrayStreamReader {
+
+    public JsonStreamReader(final Serializer serializer) {
+        super(serializer);
+    }
+
+    @Override
+    public void prepareToRead(final String encoded) throws SerializationException {
+        final JavaScriptObject payload;
+        try {
+            payload = JsonUtils.safeEval(encoded);
+        } catch (IllegalArgumentException e) {
+            throw new SerializationException(e.getMessage(), e);
+        }
+        prepareToRead(payload);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.googlecode.gwt.serialization;
+
+import com.google.gwt.core.client.JavaScriptObject;
+
+/**
+ * Client side version of the TypeSignatureCache, backed by a JavaScript object keyed by the identity hash code
+ * of the class.
+ * <p/>
+ * User: monkeyboy
+ */
+class TypeSignatureCache {
+    private final JavaScriptObject signatures = JavaScriptObject.createObject();
+
+    String get(final Class<?> clazz) {
+        return get(signatures, clazz.hashCode());
+    }
+
+    void put(final Class<?> clazz, final String signature) {
+        put(signatures, clazz.hashCode(), signature);
+    }
+
+    private static native String get(JavaScriptObject signatures, int key) /*-{
+        return signatures[key] || null;
+    }-*/;
+
+    private static native void put(JavaScriptObject signatures, int key, String signature) /*-{
+        signatures[key] = signature;
+    }-*/;
+}
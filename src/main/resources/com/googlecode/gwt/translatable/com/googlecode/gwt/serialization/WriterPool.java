@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.googlecode.gwt.serialization;
+
+import com.google.gwt.core.client.GWT;
+import com.google.gwt.user.client.rpc.impl.Serializer;
+
+/**
+ * Client side version of the WriterPool. There is only one thread in the browser so a single released writer is
+ * kept. Writers are created by the {@link WriterFactory} bound in Serialization.gwt.xml.
+ * <p/>
+ * User: monkeyboy
+ */
+class WriterPool {
+    private static final WriterFactory WRITER_FACTORY = GWT.create(WriterFactory.class);
+
+    private final Serializer serializer;
+    private final TypeSignatureCache typeSignatureCache = new TypeSignatureCache();
+    private final EscapedStringCache escapedStringCache;
+    private final boolean fingerprint;
+    private JsonSerializationStreamWriter released;
+
+    WriterPool(final Serializer serializer, final EscapedStringCache escapedStringCache) {
+        this(serializer, escapedStringCache, false);
+    }
+
+    /**
+     * @param fingerprint true for a pool of {@link FingerprintStreamWriter}s
+     */
+    WriterPool(final Serializer serializer, final EscapedStringCache escapedStringCache, final boolean fingerprint) {
+        this.serializer = serializer;
+        this.escapedStringCache = escapedStringCache;
+        this.fingerprint = fingerprint;
+    }
+
+    JsonSerializationStreamWriter acquire() {
+        final JsonSerializationStreamWriter writer = released;
+        if (writer == null) {
+            return fingerprint
+                    ? new FingerprintStreamWriter(serializer, typeSignatureCache)
+                    : WRITER_FACTORY.create(serializer, typeSignatureCache, escapedStringCache);
+        }
+        released = null;
+        return writer;
+    }
+
+    void release(final JsonSerializationStreamWriter writer) {
+        writer.reset();
+        released = writer;
+    }
+}
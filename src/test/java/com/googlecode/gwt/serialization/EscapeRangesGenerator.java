@@ -0,0 +1,97 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.gwt.serialization;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Generates {@link EscapeRanges} from {@link JsonSerializationStreamWriter#computeNeedsUnicodeEscape(char)}, so the
+ * character tables are not needed when the writer is loaded. Rerun after changing the escape rules,
+ * {@link JsonSerializationStreamWriterTest#testEscapeBitmap()} fails while the generated class is stale.
+ * <p/>
+ * Run with: java -cp ... com.googlecode.gwt.serialization.EscapeRangesGenerator src/main/java/com/googlecode/gwt/serialization/EscapeRanges.java
+ * <p/>
+ * User: monkeyboy
+ */
+public class EscapeRangesGenerator {
+    private static final int PER_LINE = 8;
+
+    public static void main(final String[] args) throws IOException {
+        final String source = generate();
+        if (args.length == 0) {
+            System.out.print(source);
+            return;
+        }
+        final Writer out = new OutputStreamWriter(new FileOutputStream(args[0]), "UTF-8");
+        try {
+            out.write(source);
+        } finally {
+            out.close();
+        }
+    }
+
+    static String generate() {
+        final StringBuilder ranges = new StringBuilder();
+        int count = 0;
+        boolean escaped = false;
+        for (int ch = Character.MIN_VALUE; ch <= Character.MAX_VALUE + 1; ch++) {
+            final boolean next = ch <= Character.MAX_VALUE && JsonSerializationStreamWriter.computeNeedsUnicodeEscape((char) ch);
+            if (next != escaped) {
+                ranges.append(count % PER_LINE == 0 ? "\n            " : " ");
+                ranges.append(String.format("0x%05X,", ch));
+                count++;
+                escaped = next;
+            }
+        }
+        ranges.setLength(ranges.length() - 1);
+
+        return HEADER
+                + "package com.googlecode.gwt.serialization;\n"
+                + "\n"
+                + "/**\n"
+                + " * Chars that need to be escaped, as sorted [start, end) pairs. Generated by EscapeRangesGenerator, do not edit.\n"
+                + " * <p/>\n"
+                + " * User: monkeyboy\n"
+                + " */\n"
+                + "final class EscapeRanges {\n"
+                + "    static final int[] RANGES = {" + ranges + "\n"
+                + "    };\n"
+                + "\n"
+                + "    private EscapeRanges() {\n"
+                + "    }\n"
+                + "}\n";
+    }
+
+    private static final String HEADER = "/*\n"
+            + " * Copyright 2013 monkeyboy\n"
+            + " *\n"
+            + " *    Licensed under the Apache License, Version 2.0 (the \"License\");\n"
+            + " *    you may not use this file except in compliance with the License.\n"
+            + " *    You may obtain a copy of the License at\n"
+            + " *\n"
+            + " *        http://www.apache.org/licenses/LICENSE-2.0\n"
+            + " *\n"
+            + " *    Unless required by applicable law or agreed to in writing, software\n"
+            + " *    distributed under the License is distributed on an \"AS IS\" BASIS,\n"
+            + " *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.\n"
+            + " *    See the License for the specific language governing permissions and\n"
+            + " *    limitations under the License.\n"
+            + " */\n";
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.gwt.serialization;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * User: monkeyboy
+ */
+public class IdentityIntMapTest {
+
+    @Test
+    public void testGrowAndClear() {
+        final IdentityIntMap map = new IdentityIntMap();
+        final Object[] keys = new Object[100000];
+        for (int i = 0; i < keys.length; i++) {
+            // equal but not identical keys
+            keys[i] = new String("key");
+            assertEquals(-1, map.get(keys[i]));
+            map.put(keys[i], i);
+        }
+        assertEquals(keys.length, map.size());
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(i, map.get(keys[i]));
+        }
+
+        map.clear();
+        assertEquals(0, map.size());
+        // the table of a huge graph is not kept
+        assertTrue(map.getCapacity() < keys.length);
+        assertEquals(-1, map.get(keys[0]));
+        // put without a lookup first
+        map.put(keys[1], 1);
+        map.put(keys[0], 0);
+        assertEquals(0, map.get(keys[0]));
+        assertEquals(1, map.get(keys[1]));
+    }
+}
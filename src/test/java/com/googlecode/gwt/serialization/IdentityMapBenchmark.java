@@ -0,0 +1,170 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.gwt.serialization;
+
+import com.google.gwt.user.client.rpc.SerializationException;
+import com.sun.management.ThreadMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Compares back-reference lookups of the writer with the boxing IdentityHashMap used by the base class, on a graph
+ * of many models sharing a smaller set of models.
+ * <p/>
+ * Run with: java -cp ... com.googlecode.gwt.serialization.IdentityMapBenchmark
+ * <p/>
+ * User: monkeyboy
+ */
+public class IdentityMapBenchmark {
+    private static final int MODELS = 300000;
+    private static final int SHARED = 30000;
+    private static final int WARM_UP = 5;
+    private static final int RUNS = 10;
+
+    public static void main(final String[] args) throws SerializationException {
+        final TestModel[] shared = new TestModel[SHARED];
+        for (int i = 0; i < SHARED; i++) {
+            shared[i] = new TestModel("shared" + (i % 100), i, i, i);
+        }
+        final TestModel[] models = new TestModel[MODELS];
+        for (int i = 0; i < MODELS; i++) {
+            models[i] = new TestModel("model" + (i % 100), i, i, i);
+            models[i].next = shared[(int) ((i * 2654435761L) % SHARED)];
+        }
+
+        final JsonSerializationStreamWriter writer = new JsonSerializationStreamWriter(new TestSerializer());
+        final JsonSerializationStreamWriter boxingWriter = new BoxingWriter();
+        if (!write(writer, models).equals(write(boxingWriter, models))) {
+            throw new AssertionError("payloads differ");
+        }
+        for (int i = 0; i < WARM_UP; i++) {
+            write(writer, models);
+            write(boxingWriter, models);
+        }
+        // runs are interleaved and the best one is reported, to keep GC and JIT noise out
+        long boxingBest = Long.MAX_VALUE;
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            boxingBest = Math.min(boxingBest, time(boxingWriter, models));
+            best = Math.min(best, time(writer, models));
+        }
+        System.out.println("IdentityHashMap: " + boxingBest / 1000000 + " ms per payload");
+        System.out.println("IdentityIntMap:  " + best / 1000000 + " ms per payload");
+
+        // only the back-reference lookups of a payload, in the order the writer does them
+        final Object[] visits = new Object[MODELS * 2];
+        for (int i = 0; i < MODELS; i++) {
+            visits[i * 2] = models[i];
+            visits[i * 2 + 1] = models[i].next;
+        }
+        final IdentityIntMap map = new IdentityIntMap();
+        final Map<Object, Integer> boxingMap = new IdentityHashMap<Object, Integer>();
+        boxingBest = Long.MAX_VALUE;
+        best = Long.MAX_VALUE;
+        for (int i = 0; i < WARM_UP + RUNS; i++) {
+            boxingBest = Math.min(boxingBest, lookups(boxingMap, visits));
+            best = Math.min(best, lookups(map, visits));
+        }
+        System.out.println("IdentityHashMap: " + boxingBest / 1000 + " us of lookups per payload");
+        System.out.println("IdentityIntMap:  " + best / 1000 + " us of lookups per payload");
+
+        final ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        lookups(boxingMap, visits);
+        System.out.println("IdentityHashMap: " + (threads.getThreadAllocatedBytes(threadId) - allocated) / 1024
+                + " KB allocated per payload");
+        allocated = threads.getThreadAllocatedBytes(threadId);
+        lookups(map, visits);
+        System.out.println("IdentityIntMap:  " + (threads.getThreadAllocatedBytes(threadId) - allocated) / 1024
+                + " KB allocated per payload");
+    }
+
+    private static long lookups(final IdentityIntMap map, final Object[] visits) {
+        final long start = System.nanoTime();
+        map.clear();
+        int count = 0;
+        for (Object visit : visits) {
+            if (map.get(visit) < 0) {
+                map.put(visit, count++);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long lookups(final Map<Object, Integer> map, final Object[] visits) {
+        final long start = System.nanoTime();
+        map.clear();
+        int count = 0;
+        for (Object visit : visits) {
+            if (!map.containsKey(visit)) {
+                map.put(visit, count++);
+            } else {
+                map.get(visit);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long time(final JsonSerializationStreamWriter writer, final TestModel[] models)
+            throws SerializationException {
+        final long start = System.nanoTime();
+        write(writer, models);
+        return System.nanoTime() - start;
+    }
+
+    private static String write(final JsonSerializationStreamWriter writer, final TestModel[] models)
+            throws SerializationException {
+        // presized from the previous payload, like JsonWriterImpl does
+        final int objects = writer.getObjectCount();
+        writer.reset();
+        writer.presize(0, 0, objects);
+        for (TestModel model : models) {
+            writer.writeObject(model);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Tracks back-references the way AbstractSerializationStreamWriter does.
+     */
+    private static class BoxingWriter extends JsonSerializationStreamWriter {
+        private final Map<Object, Integer> objectMap = new IdentityHashMap<Object, Integer>();
+
+        BoxingWriter() {
+            super(new TestSerializer());
+        }
+
+        @Override
+        public void prepareToWrite() {
+            super.prepareToWrite();
+            objectMap.clear();
+        }
+
+        @Override
+        protected int getIndexForObject(final Object instance) {
+            return objectMap.containsKey(instance) ? objectMap.get(instance) : -1;
+        }
+
+        @Override
+        protected void saveIndexForObject(final Object instance) {
+            objectMap.put(instance, objectMap.size());
+        }
+    }
+}
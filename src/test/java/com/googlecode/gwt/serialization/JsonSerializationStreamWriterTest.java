@@ -0,0 +1,705 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.googlecode.gwt.serialization;
+
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.core.client.testing.StubScheduler;
+import com.google.gwt.lang.LongLib;
+import com.google.gwt.user.client.rpc.AsyncCallback;
+import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.client.rpc.impl.ClientSerializationStreamReader;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * User: monkeyboy
+ */
+public class JsonSerializationStreamWriterTest {
+    private static final String SIGNATURE = "\"" + TestSerializer.MODEL_SIGNATURE + "\"";
+
+    @Test
+    public void testPayloadLayout() throws SerializationException {
+        final JsonSerializationStreamWriter writer = new JsonSerializationStreamWriter(new TestSerializer());
+        writer.writeObject(new TestModel("a\"b", 3, 64L, 1.5));
+
+        assertEquals("[0,1.5,'BA',3,2,1,[" + SIGNATURE + ",\"a\\\"b\"],0,7]", writer.toString());
+    }
+
+    @Test
+    public void testNull() throws SerializationException {
+        final JsonSerializationStreamWriter writer = new JsonSerializationStreamWriter(new TestSerializer());
+        writer.writeObject(null);
+
+        assertEquals("[0,[],0,7]", writer.toString());
+        assertNull(read(writer.toString()));
+    }
+
+    @Test
+    public void testRoundTrip() throws SerializationException {
+        final TestModel head = new TestModel("head", 1, Long.MIN_VALUE, -0.25);
+        TestModel current = head;
+        for (int i = 0; i < 1000; i++) {
+            current.next = new TestModel("node" + (i % 10), i, i * 1000000007L, i / 3.0);
+            current = current.next;
+        }
+        current.next = head;
+
+        final JsonSerializationStreamWriter writer = new JsonSerializationStreamWriter(new TestSerializer());
+        writer.writeObject(head);
+        final TestModel read = (TestModel) read(writer.toString());
+
+        TestModel expected = head;
+        TestModel actual = read;
+        for (int i = 0; i <= 1000; i++) {
+            assertEquals(expected.name, actual.name);
+            assertEquals(expected.count, actual.count);
+            assertEquals(expected.stamp, actual.stamp);
+            assertEquals(expected.value, actual.value, 0);
+            expected = expected.next;
+            actual = actual.next;
+        }
+        assertSame(read, actual);
+    }
+
+    @Test
+    public void testWriteTo() throws IOException {
+        final TestModel model = new TestModel("first", 1, 2L, 3.0);
+        model.next = new TestModel("second", 4, 5L, 6.0);
+        final JsonWriterImpl<TestModel> writer = new JsonWriterImpl<TestModel>(new TestSerializer());
+
+        final StringWriter out = new StringWriter();
+        writer.writeTo(model, out);
+
+        assertEquals(writer.write(model), out.toString());
+    }
+
+    @Test
+    public void testReset() throws SerializationException {
+        final TestModel model = new TestModel("model", 1, 2L, 3.0);
+        final JsonSerializationStreamWriter writer = new JsonSerializationStreamWriter(new TestSerializer());
+        writer.writeObject(new TestModel("other", 4, 5L, 6.0));
+        writer.toString();
+
+        writer.reset();
+        writer.writeObject(model);
+
+        final JsonSerializationStreamWriter fresh = new JsonSerializationStreamWriter(new TestSerializer());
+        fresh.writeObject(model);
+        assertEquals(fresh.toString(), writer.toString());
+    }
+
+    @Test
+    public void testEscapeBitmap() {
+        for (int ch = Character.MIN_VALUE; ch <= Character.MAX_VALUE; ch++) {
+            assertEquals("char " + ch, JsonSerializationStreamWriter.computeNeedsUnicodeEscape((char) ch),
+                    JsonSerializationStreamWriter.needsUnicodeEscape((char) ch));
+        }
+    }
+
+    @Test
+    public void testEscapedStringCache() {
+        final TestModel model = new TestModel("tab\tbed", 1, 2L, 3.0);
+        final EscapedStringCache cache = new EscapedStringCache(2);
+        final JsonWriterImpl<TestModel> writer = new JsonWriterImpl<TestModel>(new TestSerializer(), cache);
+        final String expected = new JsonWriterImpl<TestModel>(new TestSerializer()).write(model);
+
+        assertEquals(expected, writer.write(model));
+        assertEquals(expected, writer.write(model));
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+
+        // the cache keeps the escapes of both modes apart
+        final TestModel control = new TestModel("nul\u0000 soft\u00ad", 1, 2L, 3.0);
+        writer.write(control);
+        writer.setStrictJson(true);
+        final String strict = writer.write(control);
+        assertFalse(strict, strict.contains("\\x"));
+        assertFalse(strict, strict.contains("\\0"));
+        final JsonReaderImpl<TestModel> reader = new JsonReaderImpl<TestModel>(new TestSerializer());
+        reader.setStrictJson(true);
+        assertEquals(control, reader.read(strict));
+        writer.setStrictJson(false);
+        assertEquals(new JsonWriterImpl<TestModel>(new TestSerializer()).write(control), writer.write(control));
+        // the size bound covers both modes
+        assertEquals(2, cache.size());
+
+        // big caches are striped, the size bound still holds
+        final EscapedStringCache striped = new EscapedStringCache(1024);
+        for (int i = 0; i < 5000; i++) {
+            striped.put("s" + i, "\"s" + i + "\"");
+        }
+        assertTrue(striped.size() <= 1024);
+        assertEquals("\"s4999\"", striped.get("s4999"));
+        assertEquals(1, striped.getHits());
+        for (int i = 0; i < 5000; i++) {
+            striped.put("s" + i, true, "\"s" + i + "\"");
+        }
+        assertEquals(1024, striped.size());
+    }
+
+    @Test
+    public void testLongEncoding() {
+        final Random random = new Random(7);
+        final long[] values = new long[1000];
+        values[0] = 0;
+        values[1] = Long.MIN_VALUE;
+        values[2] = Long.MAX_VALUE;
+        values[3] = -1;
+        for (int i = 4; i < values.length; i++) {
+            values[i] = random.nextLong() >> random.nextInt(64);
+        }
+        for (long value : values) {
+            final JsonSerializationStreamWriter writer = new JsonSerializationStreamWriter(new TestSerializer());
+            writer.writeLong(value);
+            assertEquals("['" + LongLib.toBase64(value) + "',[],0,7]", writer.toString());
+        }
+    }
+
+    @Test
+    public void testPrimitiveArrays() throws SerializationException {
+        final Object[] arrays = {
+                new double[]{1.5, -0.0, Double.MAX_VALUE, Double.NaN, 1e-300},
+                new float[]{1.5f, -3f, Float.MIN_VALUE},
+                new int[]{0, -1, Integer.MIN_VALUE, Integer.MAX_VALUE},
+                new long[]{0, -1, Long.MIN_VALUE, Long.MAX_VALUE},
+                new short[]{0, Short.MIN_VALUE, Short.MAX_VALUE},
+                new byte[]{0, Byte.MIN_VALUE, Byte.MAX_VALUE},
+                new char[]{'a', '\u2011', Character.MAX_VALUE},
+                new boolean[]{true, false, true},
+                new double[1000],
+                new int[0]
+        };
+        final TestSerializer serializer = new TestSerializer();
+        for (Object array : arrays) {
+            final JsonSerializationStreamWriter expected = new JsonSerializationStreamWriter(serializer);
+            final String signature = serializer.getSerializationSignature(array.getClass());
+            expected.writeString(signature);
+            serializer.serialize(expected, array, signature);
+
+            final JsonSerializationStreamWriter writer = new JsonSerializationStreamWriter(serializer);
+            writer.writeObject(array);
+
+            assertEquals(expected.toString(), writer.toString());
+        }
+    }
+
+    @Test
+    public void testWriteAll() {
+        final TestModel shared = new TestModel("shared", 1, 2L, 3.0);
+        final TestModel first = new TestModel("first", 4, 5L, 6.0);
+        final TestModel second = new TestModel("second", 7, 8L, 9.0);
+        first.next = shared;
+        second.next = shared;
+        final JsonWriterImpl<TestModel> writer = new JsonWriterImpl<TestModel>(new TestSerializer());
+        final JsonReaderImpl<TestModel> reader = new JsonReaderImpl<TestModel>(new TestSerializer());
+
+        final String payload = writer.writeAll(Arrays.asList(first, null, second));
+        final List<TestModel> models = reader.readAll(payload);
+
+        assertEquals(3, models.size());
+        assertEquals("first", models.get(0).name);
+        assertNull(models.get(1));
+        assertEquals("second", models.get(2).name);
+        assertEquals("shared", models.get(0).next.name);
+        assertSame(models.get(0).next, models.get(2).next);
+        assertEquals(1, payload.split(TestSerializer.MODEL_SIGNATURE, -1).length - 1);
+    }
+
+    @Test
+    public void testTreeMode() throws SerializationException {
+        final TestModel head = new TestModel("head", 1, 2L, 3.0);
+        TestModel current = head;
+        for (int i = 0; i < 200; i++) {
+            current.next = new TestModel("node", i, i, i);
+            current = current.next;
+        }
+        final JsonSerializationStreamWriter writer = new JsonSerializationStreamWriter(new TestSerializer());
+        writer.writeObject(head);
+        final String expected = writer.toString();
+
+        writer.reset();
+        writer.setTreeMode(true);
+        writer.writeObject(head);
+        assertEquals(expected, writer.toString());
+
+        current.next = head;
+        writer.reset();
+        writer.setTreeMode(true);
+        try {
+            writer.writeObject(head);
+            fail("cycle not detected");
+        } catch (SerializationException expectedException) {
+            // expected
+        }
+
+        current.next = null;
+        writer.reset();
+        writer.setTreeMode(true);
+        writer.writeObject(head);
+        assertEquals(expected, writer.toString());
+    }
+
+    @Test
+    public void testMaxPayloadLength() throws SerializationException {
+        final TestModel head = new TestModel("head", 1, 2L, 3.0);
+        TestModel current = head;
+        for (int i = 0; i < 1000; i++) {
+            current.next = new TestModel("node" + i, i, i, i);
+            current = current.next;
+        }
+        final JsonWriterImpl<TestModel> writer = new JsonWriterImpl<TestModel>(new TestSerializer());
+        final String payload = writer.write(head);
+
+        writer.setMaxPayloadLength(payload.length());
+        assertEquals(payload, writer.write(head));
+        // the limit is exact, the frame around tokens and strings counts too
+        writer.setMaxPayloadLength(payload.length() - 1);
+        try {
+            writer.write(head);
+            fail("payload over the limit");
+        } catch (PayloadTooLargeException e) {
+            // expected
+        }
+        writer.setMaxPayloadLength("[0,[],0,7]".length());
+        assertEquals("[0,[],0,7]", writer.write(null));
+        writer.setMaxPayloadLength("[0,[],0,7]".length() - 1);
+        try {
+            writer.write(null);
+            fail("payload over the limit");
+        } catch (PayloadTooLargeException e) {
+            // expected
+        }
+
+        writer.setMaxPayloadLength(payload.length() / 2);
+        try {
+            writer.write(head);
+            fail("payload over the limit");
+        } catch (PayloadTooLargeException e) {
+            assertEquals(payload.length() / 2, e.getMaxPayloadLength());
+        }
+
+        // escapes count, 100 control chars take 400 chars in the payload
+        final StringBuilder controlChars = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            controlChars.append('\u0001');
+        }
+        final TestModel escaped = new TestModel(controlChars.toString(), 1, 2L, 3.0);
+        writer.setMaxPayloadLength(Integer.MAX_VALUE);
+        final String escapedPayload = writer.write(escaped);
+        writer.setMaxPayloadLength(escapedPayload.length());
+        assertEquals(escapedPayload, writer.write(escaped));
+        writer.setMaxPayloadLength(escapedPayload.length() - 100);
+        try {
+            writer.write(escaped);
+            fail("escaped payload over the limit");
+        } catch (PayloadTooLargeException e) {
+            // expected
+        }
+
+        // big arrays are rejected before their elements are written
+        final JsonSerializationStreamWriter arrayWriter = new JsonSerializationStreamWriter(new TestSerializer());
+        arrayWriter.setMaxPayloadLength(1000);
+        try {
+            arrayWriter.writeObject(new int[100000]);
+            fail("payload over the limit");
+        } catch (PayloadTooLargeException e) {
+            assertTrue(arrayWriter.getTokenLength() < 1000);
+        }
+
+        // long elements pass the up-front check, the loop stops them close to the limit
+        final double[] doubles = new double[100000];
+        Arrays.fill(doubles, -1.2345678901234567E-300);
+        arrayWriter.reset();
+        arrayWriter.setMaxPayloadLength(210000);
+        try {
+            arrayWriter.writeObject(doubles);
+            fail("payload over the limit");
+        } catch (PayloadTooLargeException e) {
+            assertTrue(arrayWriter.getTokenLength() < 210000 + 256 * 25);
+            assertTrue(arrayWriter.getTokenBufferCapacity() < 2 * 210000 + 256 * 25);
+        }
+    }
+
+    @Test
+    public void testImmutableTypes() throws SerializationException {
+        final TestModel first = new TestModel("eur", 1, 2L, 3.0);
+        first.next = new TestModel("tag", 4, 5L, 6.0);
+        final TestModel second = new TestModel("eur", 1, 2L, 3.0);
+        second.next = new TestModel("tag", 4, 5L, 6.0);
+        final TestModel other = new TestModel("usd", 1, 2L, 3.0);
+        other.next = new TestModel("tag", 4, 5L, 6.0);
+        final JsonWriterImpl<TestModel> writer = new JsonWriterImpl<TestModel>(new TestSerializer());
+        final JsonReaderImpl<TestModel> reader = new JsonReaderImpl<TestModel>(new TestSerializer());
+        final List<TestModel> models = Arrays.asList(first, second, other);
+
+        List<TestModel> read = reader.readAll(writer.writeAll(models));
+        assertNotSame(read.get(0), read.get(1));
+
+        writer.addImmutableType(TestModel.class);
+        for (boolean treeMode : new boolean[]{false, true}) {
+            writer.setTreeMode(treeMode);
+            read = reader.readAll(writer.writeAll(models));
+            assertEquals(models, read);
+            assertSame(read.get(0), read.get(1));
+            assertSame(read.get(0).next, read.get(2).next);
+            assertNotSame(read.get(0), read.get(2));
+        }
+
+        // TestModel.equals matches subclasses, they still must not share an index
+        final JsonSerializationStreamWriter streamWriter = new JsonSerializationStreamWriter(new TestSerializer());
+        streamWriter.setImmutableTypes(new HashSet<Class<?>>(Arrays.asList(TestModel.class, SpecialModel.class)));
+        streamWriter.writeObject(new TestModel("eur", 1, 2L, 3.0));
+        assertEquals(0, streamWriter.getIndexForObject(new TestModel("eur", 1, 2L, 3.0)));
+        assertEquals(-1, streamWriter.getIndexForObject(new SpecialModel("eur", 1, 2L, 3.0)));
+    }
+
+    @Test
+    public void testCanonical() throws SerializationException {
+        final TestModel head = new TestModel("zebra", 1, 2L, 3.0);
+        head.next = new TestModel("apple", 4, 5L, 6.0);
+        head.next.next = new TestModel(null, 7, 8L, 9.0);
+        head.next.next.next = new TestModel("mango", 10, 11L, 12.0);
+        final JsonSerializationStreamWriter writer = new JsonSerializationStreamWriter(new TestSerializer());
+        writer.setCanonical(true);
+        writer.writeObject(head);
+        final String payload = writer.toString();
+
+        final String stringTable = "[\"apple\",\"" + TestSerializer.MODEL_SIGNATURE + "\",\"mango\",\"zebra\"]";
+        assertTrue(payload, payload.contains(stringTable));
+        final TestModel read = (TestModel) read(payload);
+        assertEquals(head, read);
+        assertNull(read.next.next.name);
+    }
+
+    @Test
+    public void testFragment() {
+        final TestModel catalog = new TestModel("catalog", 0, 0L, 0.0);
+        TestModel current = catalog;
+        for (int i = 0; i < 20; i++) {
+            current.next = new TestModel("item" + (i % 5), i, i, i);
+            current = current.next;
+        }
+        // back-reference inside the fragment
+        current.next = catalog.next;
+        final TestModel first = new TestModel("item1", 1, 2L, 3.0);
+        first.next = catalog;
+        final TestModel second = new TestModel("second", 4, 5L, 6.0);
+        second.next = catalog;
+        final List<TestModel> models = Arrays.asList(new TestModel("item3", 0, 0L, 0.0), first, second);
+
+        for (boolean canonical : new boolean[]{false, true}) {
+            final JsonWriterImpl<TestModel> writer = new JsonWriterImpl<TestModel>(new TestSerializer());
+            writer.setCanonical(canonical);
+            final String expected = writer.writeAll(models);
+
+            assertEquals(21, writer.addFragment(catalog).getObjectCount());
+            assertEquals(expected, writer.writeAll(models));
+            // the fragment is spliced, not serialized again
+            catalog.name = "changed";
+            assertEquals(expected, writer.writeAll(models));
+            catalog.name = "catalog";
+
+            // switching the mode records the fragment again
+            final JsonWriterImpl<TestModel> strict = new JsonWriterImpl<TestModel>(new TestSerializer());
+            strict.setCanonical(canonical);
+            strict.setStrictJson(true);
+            writer.setStrictJson(true);
+            final String strictPayload = writer.writeAll(models);
+            assertEquals(strict.writeAll(models), strictPayload);
+            assertFalse(strictPayload, strictPayload.contains("'"));
+            catalog.name = "changed";
+            assertEquals(strictPayload, writer.writeAll(models));
+            catalog.name = "catalog";
+        }
+    }
+
+    @Test
+    public void testFingerprint() {
+        final TestModel head = new TestModel("head", 1, 2L, 3.0);
+        head.next = new TestModel("", 4, 5L, 6.0);
+        head.next.next = head;
+        final JsonWriterImpl<TestModel> writer = new JsonWriterImpl<TestModel>(new TestSerializer());
+        final long fingerprint = writer.fingerprint(head);
+
+        final TestModel copy = new TestModel("head", 1, 2L, 3.0);
+        copy.next = new TestModel("", 4, 5L, 6.0);
+        copy.next.next = copy;
+        assertEquals(fingerprint, writer.fingerprint(copy));
+
+        copy.next.name = null;
+        assertFalse(fingerprint == writer.fingerprint(copy));
+        copy.next.name = "";
+        copy.next.value = 6.5;
+        assertFalse(fingerprint == writer.fingerprint(copy));
+        copy.next.value = 6.0;
+        copy.next.next = null;
+        assertFalse(fingerprint == writer.fingerprint(copy));
+        assertFalse(writer.fingerprint(null) == writer.fingerprint(copy));
+    }
+
+    @Test
+    public void testDelta() {
+        final JsonWriterImpl<TestModel> writer = new JsonWriterImpl<TestModel>(new TestSerializer());
+        final JsonReaderImpl<TestModel> reader = new JsonReaderImpl<TestModel>(new TestSerializer());
+        final TestModel baseline = chain(100);
+
+        // unchanged: the baseline comes back
+        String patch = writer.writeDelta(baseline, chain(100));
+        assertSame(baseline, reader.applyDelta(baseline, patch));
+
+        // a changed head is the only object written, the rest is shared with the baseline
+        TestModel current = chain(100);
+        current.count = -1;
+        patch = writer.writeDelta(baseline, current);
+        assertTrue(patch.length() * 10 < writer.write(current).length());
+        TestModel result = reader.applyDelta(baseline, patch);
+        assertEquals(current, result);
+        assertSame(baseline.next, result.next);
+        assertEquals(1, baseline.count);
+
+        // a changed tail is written with everything that refers to it, a new node and a cycle are fine
+        current = chain(100);
+        TestModel tail = current;
+        while (tail.next != null) {
+            tail = tail.next;
+        }
+        tail.name = "changed";
+        tail.next = new TestModel("new", 1, 2L, 3.0);
+        tail.next.next = current;
+        result = reader.applyDelta(baseline, writer.writeDelta(baseline, current));
+        tail.next.next = null;
+        TestModel resultTail = result;
+        for (int i = 0; i < 100; i++) {
+            resultTail = resultTail.next;
+        }
+        assertSame(result, resultTail.next);
+        resultTail.next = null;
+        assertEquals(current, result);
+
+        assertNull(reader.applyDelta(baseline, writer.writeDelta(baseline, null)));
+    }
+
+    @Test
+    public void testDeltaDuplicateStrings() {
+        final JsonWriterImpl<Object[]> writer = new JsonWriterImpl<Object[]>(new TestSerializer());
+        final JsonReaderImpl<Object[]> reader = new JsonReaderImpl<Object[]>(new TestSerializer());
+        // equal strings are one object on the client, the slots must not depend on String identity
+        final String shared = "shared";
+        final Object[] baseline = {new String(shared), new String(shared), new TestModel("head", 1, 2L, 3.0)};
+        final Object[] clientBaseline = {shared, shared, new TestModel("head", 1, 2L, 3.0)};
+        final Object[] current = {new String(shared), "added", new TestModel("head", 1, 2L, 3.0), null};
+
+        final String patch = writer.writeDelta(baseline, current);
+        assertFalse(patch, patch.contains("'"));
+        final Object[] result = reader.applyDelta(clientBaseline, patch);
+        assertArrayEquals(current, result);
+        assertSame(clientBaseline[2], result[2]);
+        assertSame(clientBaseline, reader.applyDelta(clientBaseline, writer.writeDelta(baseline, clientBaseline)));
+
+        // a baseline walked in another order doesn't match the patch
+        final Object[] ordered = {new TestModel("x", 1, 2L, 3.0), new TestModel("y", 1, 2L, 3.0), "z"};
+        final Object[] reordered = {ordered[1], ordered[0], "z"};
+        final Object[] changed = {ordered[0], ordered[1], "changed"};
+        assertDeltaRejected(reader, reordered, writer.writeDelta(ordered, changed));
+
+        // slots out of range are rejected, not looked up
+        final DeltaStreamWriter baselineSlots = new DeltaStreamWriter(new TestSerializer(), new TypeSignatureCache());
+        try {
+            baselineSlots.walk(ordered);
+        } catch (SerializationException e) {
+            throw new RuntimeException(e);
+        }
+        final JsonSerializationStreamWriter broken = new JsonSerializationStreamWriter(new TestSerializer());
+        broken.setStrictJson(true);
+        broken.writeInt(1);
+        broken.writeLong(baselineSlots.getBaselineChecksum());
+        broken.writeInt(0);
+        broken.writeInt(1);
+        broken.writeInt(5);
+        broken.writeInt(1);
+        broken.writeInt(0);
+        assertDeltaRejected(reader, ordered, broken.toString());
+    }
+
+    private static void assertDeltaRejected(final JsonReaderImpl<Object[]> reader, final Object[] baseline,
+                                            final String patch) {
+        try {
+            reader.applyDelta(baseline, patch);
+            fail("delta applied to the wrong baseline");
+        } catch (RuntimeException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof SerializationException);
+        }
+    }
+
+    @Test
+    public void testStrictJson() throws SerializationException {
+        final TestModel head = new TestModel("nul\u0000, soft\u00ad hyphen, \"quoted\"", 1, -2L, Double.NaN);
+        head.next = new TestModel("infinite", 3, Long.MAX_VALUE, Double.NEGATIVE_INFINITY);
+        head.next.next = head;
+        final JsonWriterImpl<TestModel> writer = new JsonWriterImpl<TestModel>(new TestSerializer());
+        writer.setStrictJson(true);
+        final JsonReaderImpl<TestModel> reader = new JsonReaderImpl<TestModel>(new TestSerializer());
+        reader.setStrictJson(true);
+
+        final String payload = writer.write(head);
+        assertFalse(payload, payload.contains("'"));
+        assertFalse(payload, payload.contains("\\x"));
+        assertFalse(payload, payload.contains("\\0"));
+        assertTrue(payload, payload.contains("\"NaN\""));
+        final TestModel read = reader.read(payload);
+        assertSame(read, read.next.next);
+        head.next.next = null;
+        read.next.next = null;
+        assertEquals(head, read);
+
+        try {
+            new JsonStreamReader(new TestSerializer()).prepareToRead("[1,'AB',[],0,7]");
+            fail("single quotes are not JSON");
+        } catch (SerializationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testReadAsync() {
+        final TestModel shared = new TestModel("shared", 1, 2L, 3.0);
+        final List<TestModel> models = Arrays.asList(new TestModel("first", 4, 5L, 6.0), shared, chain(10));
+        models.get(0).next = shared;
+        final JsonWriterImpl<TestModel> writer = new JsonWriterImpl<TestModel>(new TestSerializer());
+        final JsonReaderImpl<TestModel> reader = new JsonReaderImpl<TestModel>(new TestSerializer());
+        final StubScheduler scheduler = new StubScheduler();
+        reader.setScheduler(scheduler);
+        // every model gets a slice of its own
+        reader.setSliceBudget(0);
+
+        final List<List<TestModel>> results = new ArrayList<List<TestModel>>();
+        reader.readAllAsync(writer.writeAll(models), new AsyncCallback<List<TestModel>>() {
+            @Override
+            public void onFailure(final Throwable caught) {
+                fail(caught.toString());
+            }
+
+            @Override
+            public void onSuccess(final List<TestModel> result) {
+                results.add(result);
+            }
+        });
+        assertEquals(4, runSlices(scheduler));
+        assertEquals(1, results.size());
+        assertEquals(models, results.get(0));
+        assertSame(results.get(0).get(1), results.get(0).get(0).next);
+
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        reader.readAsync("[broken", new AsyncCallback<TestModel>() {
+            @Override
+            public void onFailure(final Throwable caught) {
+                failures.add(caught);
+            }
+
+            @Override
+            public void onSuccess(final TestModel result) {
+                fail();
+            }
+        });
+        assertEquals(1, runSlices(scheduler));
+        assertEquals(1, failures.size());
+    }
+
+    @Test
+    public void testWriteAsync() {
+        final TestModel shared = new TestModel("shared", 1, 2L, 3.0);
+        final List<TestModel> models = Arrays.asList(new TestModel("first", 4, 5L, 6.0), shared, chain(10));
+        models.get(0).next = shared;
+        final JsonWriterImpl<TestModel> writer = new JsonWriterImpl<TestModel>(new TestSerializer());
+        final StubScheduler scheduler = new StubScheduler();
+        writer.setScheduler(scheduler);
+        writer.setSliceBudget(0);
+
+        final List<String> results = new ArrayList<String>();
+        final AsyncCallback<String> callback = new AsyncCallback<String>() {
+            @Override
+            public void onFailure(final Throwable caught) {
+                fail(caught.toString());
+            }
+
+            @Override
+            public void onSuccess(final String result) {
+                results.add(result);
+            }
+        };
+        writer.writeAllAsync(models, callback);
+        // a write in between the slices doesn't disturb the back-references and strings of the async one
+        assertTrue(scheduler.getRepeatingCommands().get(0).execute());
+        writer.write(chain(3));
+        assertEquals(2, runSlices(scheduler));
+        assertEquals(Arrays.asList(writer.writeAll(models)), results);
+
+        writer.writeAsync(shared, callback);
+        assertEquals(1, runSlices(scheduler));
+        assertEquals(writer.write(shared), results.get(1));
+    }
+
+    private static class SpecialModel extends TestModel {
+        SpecialModel(final String name, final int count, final long stamp, final double value) {
+            super(name, count, stamp, value);
+        }
+    }
+
+    private static int runSlices(final StubScheduler scheduler) {
+        final List<Scheduler.RepeatingCommand> commands = scheduler.getRepeatingCommands();
+        int slices = 0;
+        while (!commands.isEmpty()) {
+            slices++;
+            if (!commands.get(0).execute()) {
+                commands.remove(0);
+            }
+        }
+        return slices;
+    }
+
+    private static TestModel chain(final int length) {
+        final TestModel head = new TestModel("head", 1, 2L, 3.0);
+        TestModel current = head;
+        for (int i = 1; i < length; i++) {
+            current.next = new TestModel("node" + i, i, i, i);
+            current = current.next;
+        }
+        return head;
+    }
+
+    static Object read(final String payload) throws SerializationException {
+        final ClientSerializationStreamReader reader = new ClientSerializationStreamReader(new TestSerializer());
+        reader.prepareToRead(payload);
+        return reader.readObject();
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.googlecode.gwt.serialization;
+
+/**
+ * Simple model used by the writer tests.
+ * <p/>
+ * User: monkeyboy
+ */
+public class TestModel {
+    String name;
+    int count;
+    long stamp;
+    double value;
+    TestModel next;
+
+    public TestModel() {
+    }
+
+    public TestModel(final String name, final int count, final long stamp, final double value) {
+        this.name = name;
+        this.count = count;
+        this.stamp = stamp;
+        this.value = value;
+    }
+
+    /**
+     * Compares values, used by the tests of immutable types.
+     */
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TestModel)) {
+            return false;
+        }
+        final TestModel other = (TestModel) o;
+        return (name == null ? other.name == null : name.equals(other.name)) && count == other.count
+                && stamp == other.stamp && Double.compare(value, other.value) == 0
+                && (next == null ? other.next == null : next.equals(other.next));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = name == null ? 0 : name.hashCode();
+        result = 31 * result + count;
+        result = 31 * result + (int) (stamp ^ (stamp >>> 32));
+        return 31 * result + (next == null ? 0 : next.hashCode());
+    }
+}
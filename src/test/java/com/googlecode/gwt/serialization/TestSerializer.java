@@ -0,0 +1,148 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.googlecode.gwt.serialization;
+
+import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.client.rpc.SerializationStreamReader;
+import com.google.gwt.user.client.rpc.SerializationStreamWriter;
+import com.google.gwt.user.client.rpc.impl.Serializer;
+
+import java.lang.reflect.Array;
+
+/**
+ * Hand written replacement for the generated TypeSerializer, knows about {@link TestModel}, Strings, Object arrays and
+ * primitive arrays.
+ * <p/>
+ * User: monkeyboy
+ */
+public class TestSerializer implements Serializer {
+    static final String MODEL_SIGNATURE = "com.googlecode.gwt.serialization.TestModel/1";
+    static final String STRING_SIGNATURE = "java.lang.String/2";
+    static final String OBJECTS_SIGNATURE = "[Ljava.lang.Object;/2";
+    static final String ARRAY_SIGNATURE_SUFFIX = "/2";
+
+    @Override
+    public String getSerializationSignature(final Class<?> clazz) {
+        if (clazz.isArray() && clazz.getComponentType().isPrimitive()) {
+            return clazz.getName() + ARRAY_SIGNATURE_SUFFIX;
+        }
+        if (clazz == String.class) {
+            return STRING_SIGNATURE;
+        }
+        if (clazz == Object[].class) {
+            return OBJECTS_SIGNATURE;
+        }
+        return clazz == TestModel.class ? MODEL_SIGNATURE : null;
+    }
+
+    @Override
+    public Object instantiate(final SerializationStreamReader stream, final String typeSignature)
+            throws SerializationException {
+        if (STRING_SIGNATURE.equals(typeSignature)) {
+            return stream.readString();
+        }
+        if (OBJECTS_SIGNATURE.equals(typeSignature)) {
+            return new Object[stream.readInt()];
+        }
+        check(typeSignature);
+        return new TestModel();
+    }
+
+    @Override
+    public void serialize(final SerializationStreamWriter stream, final Object instance, final String typeSignature)
+            throws SerializationException {
+        if (instance instanceof String) {
+            stream.writeString((String) instance);
+            return;
+        }
+        if (instance instanceof Object[]) {
+            final Object[] values = (Object[]) instance;
+            stream.writeInt(values.length);
+            for (Object value : values) {
+                stream.writeObject(value);
+            }
+            return;
+        }
+        if (instance.getClass().isArray()) {
+            serializeArray(stream, instance);
+            return;
+        }
+        check(typeSignature);
+        final TestModel model = (TestModel) instance;
+        stream.writeString(model.name);
+        stream.writeInt(model.count);
+        stream.writeLong(model.stamp);
+        stream.writeDouble(model.value);
+        stream.writeObject(model.next);
+    }
+
+    @Override
+    public void deserialize(final SerializationStreamReader stream, final Object instance, final String typeSignature)
+            throws SerializationException {
+        if (STRING_SIGNATURE.equals(typeSignature)) {
+            return;
+        }
+        if (OBJECTS_SIGNATURE.equals(typeSignature)) {
+            final Object[] values = (Object[]) instance;
+            for (int i = 0; i < values.length; i++) {
+                values[i] = stream.readObject();
+            }
+            return;
+        }
+        check(typeSignature);
+        final TestModel model = (TestModel) instance;
+        model.name = stream.readString();
+        model.count = stream.readInt();
+        model.stamp = stream.readLong();
+        model.value = stream.readDouble();
+        model.next = (TestModel) stream.readObject();
+    }
+
+    /**
+     * Same as the array field serializers generated by GWT.
+     */
+    private static void serializeArray(final SerializationStreamWriter stream, final Object instance)
+            throws SerializationException {
+        final int length = Array.getLength(instance);
+        stream.writeInt(length);
+        for (int i = 0; i < length; i++) {
+            final Object value = Array.get(instance, i);
+            if (value instanceof Double) {
+                stream.writeDouble((Double) value);
+            } else if (value instanceof Float) {
+                stream.writeFloat((Float) value);
+            } else if (value instanceof Long) {
+                stream.writeLong((Long) value);
+            } else if (value instanceof Integer) {
+                stream.writeInt((Integer) value);
+            } else if (value instanceof Short) {
+                stream.writeShort((Short) value);
+            } else if (value instanceof Byte) {
+                stream.writeByte((Byte) value);
+            } else if (value instanceof Character) {
+                stream.writeChar((Character) value);
+            } else {
+                stream.writeBoolean((Boolean) value);
+            }
+        }
+    }
+
+    private static void check(final String typeSignature) throws SerializationException {
+        if (!MODEL_SIGNATURE.equals(typeSignature)) {
+            throw new SerializationException(typeSignature);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.googlecode.gwt.serialization;
+
+import org.junit.Test;
+
+import java.lang.reflect.Array;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * User: monkeyboy
+ */
+public class TypeSignatureCacheTest {
+
+    @Test
+    public void testGrow() {
+        final TypeSignatureCache cache = new TypeSignatureCache();
+        final Class<?>[] classes = new Class<?>[200];
+        Class<?> clazz = int.class;
+        for (int i = 0; i < classes.length; i++) {
+            clazz = Array.newInstance(clazz, 0).getClass();
+            classes[i] = clazz;
+            assertNull(cache.get(clazz));
+            cache.put(clazz, "signature" + i);
+        }
+        for (int i = 0; i < classes.length; i++) {
+            assertEquals("signature" + i, cache.get(classes[i]));
+        }
+    }
+}
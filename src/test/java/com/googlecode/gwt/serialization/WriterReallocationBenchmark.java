@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.googlecode.gwt.serialization;
+
+import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.client.rpc.SerializationStreamWriter;
+
+/**
+ * Counts how many times the writer buffers are reallocated while writing a large payload, once with a fresh writer
+ * and once with a writer presized from the size of the previous payload.
+ * <p/>
+ * Run with: java -cp ... com.googlecode.gwt.serialization.WriterReallocationBenchmark
+ * <p/>
+ * User: monkeyboy
+ */
+public class WriterReallocationBenchmark {
+    private static final int NODES = 50000;
+
+    public static void main(final String[] args) throws InterruptedException {
+        // the model is a linked list, which is written recursively
+        final Thread thread = new Thread(null, new Runnable() {
+            @Override
+            public void run() {
+                benchmark();
+            }
+        }, "benchmark", 1L << 30);
+        thread.start();
+        thread.join();
+    }
+
+    private static void benchmark() {
+        final TestModel head = new TestModel("head", 0, 0L, 0.0);
+        TestModel current = head;
+        for (int i = 1; i < NODES; i++) {
+            current.next = new TestModel("node" + (i % 100), i, i * 31L, i / 7.0);
+            current = current.next;
+        }
+
+        final CountingSerializer serializer = new CountingSerializer();
+        final JsonWriterImpl<TestModel> writer = new JsonWriterImpl<TestModel>(serializer);
+
+        serializer.reset();
+        String payload = writer.write(head);
+        print("without size hint", serializer, payload);
+
+        serializer.reset();
+        payload = writer.write(head);
+        print("with size hint", serializer, payload);
+    }
+
+    private static void print(final String name, final CountingSerializer serializer, final String payload) {
+        System.out.println(name + ": " + payload.length() + " chars, "
+                + serializer.tokenBufferReallocations + " token buffer reallocations, "
+                + serializer.tokenReallocations + " token offset reallocations");
+    }
+
+    private static class CountingSerializer extends TestSerializer {
+        int tokenBufferCapacity;
+        int tokenCapacity;
+        int tokenBufferReallocations;
+        int tokenReallocations;
+
+        void reset() {
+            tokenBufferCapacity = -1;
+            tokenCapacity = -1;
+            tokenBufferReallocations = 0;
+            tokenReallocations = 0;
+        }
+
+        @Override
+        public void serialize(final SerializationStreamWriter stream, final Object instance, final String typeSignature)
+                throws SerializationException {
+            final JsonSerializationStreamWriter writer = (JsonSerializationStreamWriter) stream;
+            if (tokenBufferCapacity < 0) {
+                // presized before the first object
+                tokenBufferCapacity = writer.getTokenBufferCapacity();
+                tokenCapacity = writer.getTokenCapacity();
+            }
+            count(writer);
+            super.serialize(stream, instance, typeSignature);
+            count(writer);
+        }
+
+        private void count(final JsonSerializationStreamWriter writer) {
+            if (writer.getTokenBufferCapacity() != tokenBufferCapacity) {
+                tokenBufferCapacity = writer.getTokenBufferCapacity();
+                tokenBufferReallocations++;
+            }
+            if (writer.getTokenCapacity() != tokenCapacity) {
+                tokenCapacity = writer.getTokenCapacity();
+                tokenReallocations++;
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.googlecode.gwt.serialization.server;
+
+import com.googlecode.gwt.serialization.JsonWriterImpl;
+import com.googlecode.gwt.serialization.TestModel;
+import com.googlecode.gwt.serialization.TestSerializer;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * User: monkeyboy
+ */
+public class JsonDeflaterTest {
+
+    @Test
+    public void testDeflate() throws IOException {
+        assertDeflated(new TestModel("čvrsto € 😀", 1, 2L, 3.0));
+    }
+
+    @Test
+    public void testDeflateLargePayload() throws IOException {
+        // Several chunks, with surrogate pairs and multi-byte chars falling on chunk boundaries.
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            text.append(i % 3 == 0 ? "😀" : i % 3 == 1 ? "a" : "€");
+        }
+        assertDeflated(new TestModel(text.toString(), 1, 2L, 3.0));
+    }
+
+    private static void assertDeflated(final TestModel model) throws IOException {
+        final JsonWriterImpl<TestModel> writer = new JsonWriterImpl<TestModel>(new TestSerializer());
+        final byte[] deflated = JsonDeflater.deflate(writer, model, Deflater.BEST_COMPRESSION);
+
+        final InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(deflated));
+        final ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[256];
+        for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+            inflated.write(buffer, 0, n);
+        }
+        assertArrayEquals(writer.write(model).getBytes("UTF-8"), inflated.toByteArray());
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2013 monkeyboy
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.googlecode.gwt.serialization.server;
+
+import org.junit.Test;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * User: monkeyboy
+ */
+public class Utf8OutputTest {
+    private static final String TEXT = "[1,2,'BA',[\"ascii\",\"čvrsto € 😀\",\"\\u2011\"],0,7]";
+
+    @Test
+    public void testGrowable() throws UnsupportedEncodingException {
+        final Utf8Output out = new Utf8Output(1);
+        out.append(TEXT, 0, 5).append(TEXT.substring(5)).flush();
+
+        assertArrayEquals(TEXT.getBytes("UTF-8"), out.toByteArray());
+        assertEquals(TEXT.getBytes("UTF-8").length, out.size());
+    }
+
+    @Test
+    public void testByteBuffers() throws UnsupportedEncodingException {
+        final String text = randomText();
+        final byte[] expected = text.getBytes("UTF-8");
+        for (ByteBuffer buffer : new ByteBuffer[]{ByteBuffer.allocate(expected.length + 3),
+                ByteBuffer.allocateDirect(expected.length + 3)}) {
+            buffer.put((byte) 'x');
+            final Utf8Output out = new Utf8Output(buffer);
+            for (int i = 0; i < text.length(); i++) {
+                out.append(text.charAt(i));
+            }
+            out.flush();
+
+            assertEquals(expected.length + 1, buffer.position());
+            buffer.flip();
+            buffer.get();
+            final byte[] actual = new byte[buffer.remaining()];
+            buffer.get(actual);
+            assertArrayEquals(expected, actual);
+        }
+    }
+
+    @Test(expected = BufferOverflowException.class)
+    public void testOverflow() {
+        new Utf8Output(ByteBuffer.allocate(4)).append("12345");
+    }
+
+    @Test
+    public void testUnpairedSurrogates() throws UnsupportedEncodingException {
+        final String text = "a\uD800b\uDC00\uD800";
+        final Utf8Output out = new Utf8Output();
+        out.append(text).flush();
+
+        assertArrayEquals(text.getBytes("UTF-8"), out.toByteArray());
+    }
+
+    private static String randomText() {
+        final Random random = new Random(3);
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50000; i++) {
+            if (random.nextInt(10) == 0) {
+                sb.appendCodePoint(random.nextInt(Character.MAX_CODE_POINT));
+            } else {
+                sb.append((char) random.nextInt(0x80));
+            }
+        }
+        return sb.toString();
+    }
+}